@@ -0,0 +1,549 @@
+package com.eaglesakura.android.gms.auth;
+
+import com.google.android.gms.auth.GoogleAuthUtil;
+
+import com.eaglesakura.android.gms.error.PlayServiceException;
+import com.eaglesakura.android.gms.error.PlayServiceTimeoutException;
+import com.eaglesakura.android.gms.metrics.PlayServiceMetrics;
+import com.eaglesakura.android.gms.util.Deadline;
+import com.eaglesakura.android.gms.util.PlayServiceScheduler;
+import com.eaglesakura.android.gms.util.ResultLatch;
+
+import android.accounts.Account;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OAuth2アクセストークンのキャッシュ
+ *
+ * トークンはAccountとソート済みのScopeの組み合わせごとに保持される。
+ * 同じ組み合わせへの同時リクエストは1回の取得にまとめられ、
+ * 有効期限が近づいたトークンはバックグラウンドで事前に更新される。
+ * キャッシュはアカウントをまたいで上限数が決められており、参照の古いトークンから破棄される。
+ */
+public class AccessTokenCache {
+    /**
+     * トークンの取得元
+     */
+    public interface TokenSource {
+        /**
+         * トークンを取得する
+         *
+         * @param account 対象アカウント
+         * @param scope   "oauth2:"で始まるScope文字列
+         */
+        String getToken(@NonNull Account account, @NonNull String scope) throws Exception;
+
+        /**
+         * 無効になったトークンを破棄する
+         */
+        void clearToken(@NonNull String token) throws Exception;
+    }
+
+    /**
+     * Googleのアクセストークンのデフォルト有効期間(ms)
+     */
+    public static final long DEFAULT_TOKEN_LIFETIME_MS = 1000 * 60 * 60;
+
+    /**
+     * 有効期限のどれだけ前から更新を開始するかのデフォルト値(ms)
+     */
+    public static final long DEFAULT_REFRESH_MARGIN_MS = 1000 * 60 * 10;
+
+    public static final String ACCOUNT_TYPE_GOOGLE = "com.google";
+
+    /**
+     * キャッシュするトークン数のデフォルト上限
+     */
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    private final TokenSource mTokenSource;
+
+    /**
+     * Account×Scopeごとのトークン
+     * 参照順に並べ、上限を超えた場合は最も古く参照されたものから破棄する
+     */
+    private final LinkedHashMap<String, Token> mTokens = new LinkedHashMap<String, Token>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Token> eldest) {
+            if (size() > mMaxSize) {
+                mEvictionCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * 生成済みのAccount
+     */
+    private final ConcurrentMap<String, Account> mAccounts = new ConcurrentHashMap<>();
+
+    /**
+     * キャッシュが破棄された回数
+     * 破棄前に開始された取得の結果をキャッシュしないために使用する
+     */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    private volatile int mMaxSize = DEFAULT_MAX_SIZE;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    private final AtomicLong mEvictionCount = new AtomicLong();
+
+    /**
+     * 取得中のリクエスト
+     */
+    private final ConcurrentMap<String, ResultLatch<Token>> mFlights = new ConcurrentHashMap<>();
+
+    private volatile long mTokenLifetimeMs = DEFAULT_TOKEN_LIFETIME_MS;
+
+    private volatile long mRefreshMarginMs = DEFAULT_REFRESH_MARGIN_MS;
+
+    /**
+     * GoogleAuthUtilからトークンを取得するキャッシュを生成する
+     */
+    public AccessTokenCache(@NonNull Context context) {
+        this(newGoogleAuthTokenSource(context.getApplicationContext()));
+    }
+
+    public AccessTokenCache(@NonNull TokenSource tokenSource) {
+        mTokenSource = tokenSource;
+    }
+
+    /**
+     * トークンの有効期間を指定する
+     */
+    public void setTokenLifetime(long time, TimeUnit unit) {
+        mTokenLifetimeMs = unit.toMillis(time);
+    }
+
+    /**
+     * 有効期限のどれだけ前からバックグラウンド更新を行うかを指定する
+     */
+    public void setRefreshMargin(long time, TimeUnit unit) {
+        mRefreshMarginMs = unit.toMillis(time);
+    }
+
+    /**
+     * キャッシュするトークン数の上限を指定する
+     *
+     * 上限はアカウントをまたいだ合計数であり、超えた場合は最も古く参照されたトークンから破棄される。
+     */
+    public void setMaxSize(int maxSize) {
+        mMaxSize = Math.max(maxSize, 1);
+        synchronized (mTokens) {
+            Iterator<Map.Entry<String, Token>> iterator = mTokens.entrySet().iterator();
+            while (mTokens.size() > mMaxSize && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                mEvictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 有効なトークンがキャッシュされていなければ、バックグラウンドで取得しておく
+     *
+     * 次に使用される可能性の高いアカウントに対して呼び出すことで、getToken時のIPCを省略する。
+     */
+    public void warm(@NonNull String email, @NonNull String scope, String... extraScopes) {
+        final String scopeText = toScopeText(scope, extraScopes);
+        final String key = toKey(email, scopeText);
+        final Token token;
+        synchronized (mTokens) {
+            token = mTokens.get(key);
+        }
+        final long now = SystemClock.elapsedRealtime();
+        if (token == null || now >= token.mRefreshTime) {
+            fetchAsync(key, email, scopeText);
+        }
+    }
+
+    /**
+     * 有効なトークンがキャッシュされていれば返す
+     *
+     * 更新時刻を過ぎている場合はバックグラウンドで更新する。
+     */
+    @Nullable
+    private String getCachedToken(String key, String email, String scopeText) {
+        final Token token;
+        synchronized (mTokens) {
+            token = mTokens.get(key);
+        }
+        final long now = SystemClock.elapsedRealtime();
+        if (token != null && now < token.mExpireTime) {
+            mHitCount.incrementAndGet();
+            if (now >= token.mRefreshTime) {
+                fetchAsync(key, email, scopeText);
+            }
+            return token.mValue;
+        }
+        mMissCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * アクセストークンを取得する。
+     *
+     * 有効なトークンがキャッシュされている場合はIPCを行わずに返す。
+     *
+     * @param email       UserEmail
+     * @param scope       アクセススコープ
+     * @param extraScopes 2個以上のアクセススコープを指定する場合
+     */
+    @NonNull
+    public String getToken(@NonNull String email, @NonNull String scope, String... extraScopes) throws PlayServiceException {
+        final String scopeText = toScopeText(scope, extraScopes);
+        final String key = toKey(email, scopeText);
+
+        final String cached = getCachedToken(key, email, scopeText);
+        if (cached != null) {
+            return cached;
+        }
+
+        return fetch(key, email, scopeText).mValue;
+    }
+
+    /**
+     * 期限付きでアクセストークンを取得する。
+     *
+     * キャッシュが無い場合の取得はバックグラウンドで行われ、期限を過ぎた場合は待機のみを中断する。
+     * 中断後も取得は継続され、結果はキャッシュされる。
+     *
+     * @param deadline    取得の期限
+     * @param email       UserEmail
+     * @param scope       アクセススコープ
+     * @param extraScopes 2個以上のアクセススコープを指定する場合
+     * @throws PlayServiceTimeoutException 期限までに取得できなかった
+     */
+    @NonNull
+    public String getToken(@NonNull Deadline deadline, @NonNull String email, @NonNull String scope, String... extraScopes) throws PlayServiceException {
+        final String scopeText = toScopeText(scope, extraScopes);
+        final String key = toKey(email, scopeText);
+
+        final String cached = getCachedToken(key, email, scopeText);
+        if (cached != null) {
+            return cached;
+        }
+
+        deadline.assertNotExpired();
+        return awaitFlight(fetchAsync(key, email, scopeText), deadline).mValue;
+    }
+
+    /**
+     * 無効になったトークンを破棄する。
+     *
+     * サーバーから401が返却された場合に呼び出すことで、次回は新しいトークンが取得される。
+     */
+    public void invalidateToken(@NonNull String token) throws PlayServiceException {
+        synchronized (mTokens) {
+            // 取得中の結果が破棄したトークンである可能性があるため、キャッシュさせない
+            mGeneration.incrementAndGet();
+            Iterator<Token> iterator = mTokens.values().iterator();
+            while (iterator.hasNext()) {
+                if (token.equals(iterator.next().mValue)) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        try {
+            mTokenSource.clearToken(token);
+        } catch (Exception e) {
+            throw new PlayServiceException(e);
+        }
+    }
+
+    /**
+     * キャッシュされている全てのトークンを破棄する
+     */
+    public void clear() {
+        synchronized (mTokens) {
+            mGeneration.incrementAndGet();
+            mTokens.clear();
+        }
+        mAccounts.clear();
+    }
+
+    /**
+     * 指定したアカウントのトークンを全て破棄する
+     *
+     * サインアウト時に呼び出す。取得中のトークンもキャッシュされない。
+     */
+    public void clearAccount(@NonNull String email) {
+        synchronized (mTokens) {
+            mGeneration.incrementAndGet();
+            Iterator<Token> iterator = mTokens.values().iterator();
+            while (iterator.hasNext()) {
+                if (email.equals(iterator.next().mEmail)) {
+                    iterator.remove();
+                }
+            }
+        }
+        mAccounts.remove(email);
+    }
+
+    /**
+     * キャッシュされているトークン数
+     */
+    public int size() {
+        synchronized (mTokens) {
+            return mTokens.size();
+        }
+    }
+
+    /**
+     * キャッシュから返却できた回数
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * キャッシュから返却できなかった回数
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * キャッシュから返却できた割合
+     */
+    public double getHitRatio() {
+        final long hit = mHitCount.get();
+        final long total = hit + mMissCount.get();
+        return total == 0 ? 0 : ((double) hit / (double) total);
+    }
+
+    /**
+     * 上限を超えたために破棄されたトークン数
+     */
+    public long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+    /**
+     * アカウントを取得する
+     *
+     * 同じアカウントに対してはキャッシュ済みのインスタンスを再利用する。
+     */
+    private Account getAccount(String email) {
+        Account account = mAccounts.get(email);
+        if (account == null) {
+            if (mAccounts.size() >= mMaxSize) {
+                // 使用されなくなったアカウントが残り続けないよう、上限を超えたら作り直す
+                mAccounts.clear();
+            }
+            account = new Account(email, ACCOUNT_TYPE_GOOGLE);
+            mAccounts.put(email, account);
+        }
+        return account;
+    }
+
+    /**
+     * トークンを取得する。
+     *
+     * 同じキーの取得が進行中であれば、その結果を待つ。
+     */
+    Token fetch(String key, String email, String scopeText) throws PlayServiceException {
+        ResultLatch<Token> flight = new ResultLatch<>();
+        ResultLatch<Token> current = mFlights.putIfAbsent(key, flight);
+        if (current != null) {
+            return awaitFlight(current, Deadline.NONE);
+        }
+        return load(key, flight, email, scopeText);
+    }
+
+    /**
+     * トークンの取得をバックグラウンドで開始する。
+     *
+     * 同じキーの取得が進行中であれば、そのLatchを返す。
+     */
+    ResultLatch<Token> fetchAsync(String key, String email, String scopeText) {
+        ResultLatch<Token> flight = new ResultLatch<>();
+        ResultLatch<Token> current = mFlights.putIfAbsent(key, flight);
+        if (current != null) {
+            return current;
+        }
+
+        PlayServiceScheduler.executeBlocking(() -> {
+            try {
+                load(key, flight, email, scopeText);
+            } catch (PlayServiceException ignored) {
+                // 待機している呼び出し元へはflightを通じて通知される
+            }
+        });
+        return flight;
+    }
+
+    /**
+     * TokenSourceからトークンを取得し、flightへ通知する
+     */
+    private Token load(String key, ResultLatch<Token> flight, String email, String scopeText) throws PlayServiceException {
+        final long startTime = PlayServiceMetrics.startTime();
+        final int generation = mGeneration.get();
+        final Token previous;
+        synchronized (mTokens) {
+            previous = mTokens.get(key);
+        }
+        try {
+            if (previous != null) {
+                // GMSは期限内のトークンを保持しているため、破棄せずに取得すると同じトークンが返却される
+                try {
+                    mTokenSource.clearToken(previous.mValue);
+                } catch (Exception ignored) {
+                    // 同じトークンが返却された場合も、有効期限は延長されない
+                }
+            }
+
+            String value = mTokenSource.getToken(getAccount(email), scopeText);
+            if (value == null) {
+                throw new PlayServiceException("Token not found");
+            }
+            if (startTime != 0) {
+                PlayServiceMetrics.getInstance().onTokenFetch(System.nanoTime() - startTime, true);
+            }
+
+            Token token = newToken(email, value, previous, SystemClock.elapsedRealtime());
+            synchronized (mTokens) {
+                if (generation == mGeneration.get()) {
+                    mTokens.put(key, token);
+                }
+            }
+            flight.set(token);
+            return token;
+        } catch (Exception e) {
+            if (startTime != 0) {
+                PlayServiceMetrics.getInstance().onTokenFetch(System.nanoTime() - startTime, false);
+            }
+            PlayServiceException error = (e instanceof PlayServiceException) ? (PlayServiceException) e : new PlayServiceException(e);
+            flight.abort(error);
+            throw error;
+        } finally {
+            mFlights.remove(key);
+        }
+    }
+
+    /**
+     * 取得したトークンの有効期限を決める
+     *
+     * GMSから返却されたトークンがいつ発行されたものかは分からないため、
+     * 破棄した上で取得した新しいトークンのみを有効期間全体で有効とする。
+     *
+     * @param previous 取得前にキャッシュされていたトークン
+     */
+    Token newToken(String email, String value, @Nullable Token previous, long now) {
+        if (previous != null && value.equals(previous.mValue)) {
+            // 新しいトークンが発行されなかったため、最初に取得した時点の期限を引き継ぐ
+            return new Token(email, value, previous.mExpireTime, previous.mExpireTime);
+        }
+
+        final long lifetime = mTokenLifetimeMs;
+        final long margin = mRefreshMarginMs;
+        if (previous == null && margin > 0) {
+            // GMS内で以前に発行されたトークンの可能性があるため、更新猶予の間のみ有効とし、早めに発行し直す
+            final long trusted = Math.min(lifetime, margin);
+            return new Token(email, value, now + trusted, now + trusted / 2);
+        }
+        return new Token(email, value, now + lifetime, now + Math.max(lifetime - margin, 0));
+    }
+
+    static Token awaitFlight(ResultLatch<Token> flight, Deadline deadline) throws PlayServiceException {
+        try {
+            return flight.await(null, deadline);
+        } catch (InterruptedException e) {
+            Throwable error = flight.getAbortReason();
+            if (error instanceof PlayServiceException) {
+                throw (PlayServiceException) error;
+            }
+            throw new PlayServiceException(e);
+        }
+    }
+
+    /**
+     * "oauth2:"形式のScope文字列を生成する
+     *
+     * 指定順にかかわらず同じ文字列となるよう、Scopeはソートされる。
+     */
+    @NonNull
+    static String toScopeText(@NonNull String scope, @Nullable String... extraScopes) {
+        if (extraScopes == null || extraScopes.length == 0) {
+            return "oauth2:" + scope;
+        }
+
+        String[] scopes = new String[extraScopes.length + 1];
+        scopes[0] = scope;
+        System.arraycopy(extraScopes, 0, scopes, 1, extraScopes.length);
+        Arrays.sort(scopes);
+
+        StringBuilder builder = new StringBuilder("oauth2:");
+        String previous = null;
+        for (String item : scopes) {
+            if (item.equals(previous)) {
+                continue;
+            }
+            if (previous != null) {
+                builder.append(' ');
+            }
+            builder.append(item);
+            previous = item;
+        }
+        return builder.toString();
+    }
+
+    static String toKey(String email, String scopeText) {
+        return email + "\n" + scopeText;
+    }
+
+    static TokenSource newGoogleAuthTokenSource(Context context) {
+        return new TokenSource() {
+            @Override
+            public String getToken(@NonNull Account account, @NonNull String scope) throws Exception {
+                return GoogleAuthUtil.getToken(context, account, scope);
+            }
+
+            @Override
+            public void clearToken(@NonNull String token) throws Exception {
+                GoogleAuthUtil.clearToken(context, token);
+            }
+        };
+    }
+
+    static class Token {
+        final String mEmail;
+
+        final String mValue;
+
+        /**
+         * 有効期限
+         */
+        final long mExpireTime;
+
+        /**
+         * バックグラウンド更新を開始する時刻
+         */
+        final long mRefreshTime;
+
+        Token(String email, String value, long expireTime, long refreshTime) {
+            mEmail = email;
+            mValue = value;
+            mExpireTime = expireTime;
+            mRefreshTime = refreshTime;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.eaglesakura.android.gms.auth;
+
+import com.eaglesakura.android.gms.client.PlayServiceConnection;
+import com.eaglesakura.android.gms.client.PlayServiceConnectionSpec;
+import com.eaglesakura.android.gms.client.PlayServiceConnector;
+import com.eaglesakura.android.gms.error.PlayServiceException;
+import com.eaglesakura.android.gms.util.PlayServiceScheduler;
+import com.eaglesakura.android.gms.util.PlayServiceUtil;
+import com.eaglesakura.android.gms.util.ResultLatch;
+import com.eaglesakura.lambda.CancelCallback;
+
+import android.content.Intent;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * サインイン用Intentを事前に準備する
+ *
+ * サインイン画面の表示前に{@link #prepare()}を呼び出すことで、接続とsignOutをバックグラウンドで済ませておく。
+ * ユーザーがサインインを要求した時点で{@link #getSignInIntent(CancelCallback)}から即座にIntentを受け取れる。
+ *
+ * 準備したIntentは一度だけ使用でき、一定時間経過したものは破棄して再度準備する。
+ */
+public class SignInIntentPreparer {
+    /**
+     * 準備したIntentを有効とするデフォルト時間(ms)
+     */
+    public static final long DEFAULT_TIME_TO_LIVE_MS = 1000 * 60;
+
+    private final PlayServiceConnectionSpec mSpec;
+
+    private final Object mLock = new Object();
+
+    /**
+     * 準備中もしくは準備済みのIntent
+     */
+    private ResultLatch<Prepared> mPrepared;
+
+    private volatile long mTimeToLiveMs = DEFAULT_TIME_TO_LIVE_MS;
+
+    private final AtomicLong mWarmCount = new AtomicLong();
+
+    private final AtomicLong mWarmTimeMs = new AtomicLong();
+
+    private final AtomicLong mColdCount = new AtomicLong();
+
+    private final AtomicLong mColdTimeMs = new AtomicLong();
+
+    private volatile long mLastPrepareTimeMs;
+
+    /**
+     * @param spec サインイン対象のAPI。Auth.GOOGLE_SIGN_IN_APIを含む必要がある
+     */
+    public SignInIntentPreparer(@NonNull PlayServiceConnectionSpec spec) {
+        mSpec = spec;
+    }
+
+    /**
+     * 準備したIntentを有効とする時間を指定する
+     */
+    public void setTimeToLive(long time, TimeUnit unit) {
+        mTimeToLiveMs = unit.toMillis(time);
+    }
+
+    /**
+     * バックグラウンドでIntentの準備を開始する
+     *
+     * 既に準備中か、有効なIntentが準備済みであれば何もしない。
+     */
+    public void prepare() {
+        synchronized (mLock) {
+            if (mPrepared != null && isUsable(mPrepared)) {
+                return;
+            }
+            mPrepared = startPrepare();
+        }
+    }
+
+    /**
+     * 準備中・準備済みのIntentを破棄する
+     *
+     * 準備中の場合は中断される。
+     */
+    public void discard() {
+        final ResultLatch<Prepared> prepared;
+        synchronized (mLock) {
+            prepared = mPrepared;
+            mPrepared = null;
+        }
+        if (prepared != null) {
+            prepared.abort();
+        }
+    }
+
+    /**
+     * サインイン用Intentを取得する
+     *
+     * 準備済みであれば即座に返却し、準備中であればその完了を待つ。
+     * 準備されていない場合はこのスレッドで接続とsignOutを行う。
+     *
+     * @param cancelCallback キャンセルチェック
+     * @return ログイン用intent
+     */
+    @NonNull
+    public Intent getSignInIntent(CancelCallback cancelCallback) throws InterruptedException, PlayServiceException {
+        final ResultLatch<Prepared> prepared;
+        synchronized (mLock) {
+            // Intentは一度だけ使用する
+            prepared = mPrepared;
+            mPrepared = null;
+        }
+
+        final long startTime = SystemClock.elapsedRealtime();
+        if (prepared != null && isUsable(prepared)) {
+            try {
+                Intent intent = prepared.await(cancelCallback).mIntent;
+                mWarmCount.incrementAndGet();
+                mWarmTimeMs.addAndGet(SystemClock.elapsedRealtime() - startTime);
+                return intent;
+            } catch (InterruptedException e) {
+                Throwable reason = prepared.getAbortReason();
+                if (reason instanceof PlayServiceException) {
+                    throw (PlayServiceException) reason;
+                }
+                throw e;
+            }
+        }
+
+        Intent intent = newPrepared(cancelCallback).mIntent;
+        mColdCount.incrementAndGet();
+        mColdTimeMs.addAndGet(SystemClock.elapsedRealtime() - startTime);
+        return intent;
+    }
+
+    /**
+     * 準備中、もしくは有効期限内に準備が完了していればtrue
+     */
+    private boolean isUsable(ResultLatch<Prepared> prepared) {
+        if (!prepared.isDone()) {
+            return true;
+        }
+        return !prepared.isAborted()
+                && (SystemClock.elapsedRealtime() - prepared.get().mPreparedTime) < mTimeToLiveMs;
+    }
+
+    private ResultLatch<Prepared> startPrepare() {
+        final ResultLatch<Prepared> latch = new ResultLatch<>();
+        PlayServiceScheduler.executeBlocking(() -> {
+            try {
+                // 破棄された時点で中断する
+                Prepared prepared = newPrepared(() -> latch.isDone());
+                mLastPrepareTimeMs = prepared.mPrepareTimeMs;
+                latch.set(prepared);
+            } catch (Throwable e) {
+                latch.abort(e);
+            }
+        });
+        return latch;
+    }
+
+    /**
+     * 接続とsignOutを行い、Intentを生成する
+     */
+    private Prepared newPrepared(CancelCallback cancelCallback) throws InterruptedException, PlayServiceException {
+        final long startTime = SystemClock.elapsedRealtime();
+        try (
+                PlayServiceConnection connection = PlayServiceConnector.getInstance().connect(mSpec, cancelCallback)
+        ) {
+            Intent intent = PlayServiceUtil.newSignInIntent(connection, cancelCallback);
+            final long now = SystemClock.elapsedRealtime();
+            return new Prepared(intent, now, now - startTime);
+        } catch (IOException e) {
+            throw new PlayServiceException(e);
+        }
+    }
+
+    /**
+     * 準備済みのIntentを受け取った回数。準備中のものを待った場合も含む
+     */
+    public long getWarmCount() {
+        return mWarmCount.get();
+    }
+
+    /**
+     * 準備済みのIntentを受け取るまでに要した合計時間(ms)
+     */
+    public long getTotalWarmTimeMs() {
+        return mWarmTimeMs.get();
+    }
+
+    /**
+     * 準備されておらず、呼び出し元のスレッドで接続を行った回数
+     */
+    public long getColdCount() {
+        return mColdCount.get();
+    }
+
+    /**
+     * 呼び出し元のスレッドで接続を行った場合の合計時間(ms)
+     */
+    public long getTotalColdTimeMs() {
+        return mColdTimeMs.get();
+    }
+
+    /**
+     * 最後にバックグラウンドで準備した際の所要時間(ms)
+     */
+    public long getLastPrepareTimeMs() {
+        return mLastPrepareTimeMs;
+    }
+
+    private static class Prepared {
+        final Intent mIntent;
+
+        final long mPreparedTime;
+
+        final long mPrepareTimeMs;
+
+        Prepared(Intent intent, long preparedTime, long prepareTimeMs) {
+            mIntent = intent;
+            mPreparedTime = preparedTime;
+            mPrepareTimeMs = prepareTimeMs;
+        }
+    }
+}
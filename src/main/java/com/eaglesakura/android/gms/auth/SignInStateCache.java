@@ -0,0 +1,266 @@
+package com.eaglesakura.android.gms.auth;
+
+import com.google.android.gms.auth.api.Auth;
+import com.google.android.gms.auth.api.signin.GoogleSignInResult;
+
+import com.eaglesakura.android.gms.client.PlayServiceConnection;
+import com.eaglesakura.android.gms.client.PlayServiceConnectionSpec;
+import com.eaglesakura.android.gms.client.PlayServiceConnector;
+import com.eaglesakura.android.gms.error.PlayServiceException;
+import com.eaglesakura.android.gms.util.PlayServiceScheduler;
+import com.eaglesakura.android.gms.util.PlayServiceUtil;
+import com.eaglesakura.android.gms.util.ResultLatch;
+import com.eaglesakura.lambda.CallbackUtils;
+import com.eaglesakura.lambda.CancelCallback;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * silentSignInの結果のキャッシュ
+ *
+ * 接続設定ごとに最後に成功した{@link GoogleSignInResult}を一定時間保持し、
+ * 再開時等に繰り返し行われるサインイン状態の確認をメモリの参照のみで済ませる。
+ *
+ * 同じ設定への同時の問い合わせは1回のsilentSignInにまとめられる。
+ * キャッシュは{@link PlayServiceUtil#signOut(PlayServiceConnection, CancelCallback)}によって破棄される。
+ */
+public class SignInStateCache {
+    /**
+     * サインイン状態の問い合わせ先
+     */
+    public interface SignInSource {
+        /**
+         * silentSignInを行う
+         *
+         * @param spec 接続設定
+         */
+        @NonNull
+        GoogleSignInResult silentSignIn(@NonNull PlayServiceConnectionSpec spec) throws Exception;
+    }
+
+    /**
+     * 結果を有効とするデフォルト時間(ms)
+     */
+    public static final long DEFAULT_TIME_TO_LIVE_MS = 1000 * 60 * 5;
+
+    private static final SignInStateCache sInstance = new SignInStateCache(SignInStateCache::silentSignIn);
+
+    private final SignInSource mSignInSource;
+
+    /**
+     * 接続設定ごとの結果
+     */
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    /**
+     * 問い合わせ中のリクエスト
+     */
+    private final ConcurrentMap<String, ResultLatch<GoogleSignInResult>> mFlights = new ConcurrentHashMap<>();
+
+    /**
+     * キャッシュが破棄された回数
+     * 破棄前に開始された問い合わせの結果をキャッシュしないために使用する
+     * mEntriesのロック内でのみ操作する
+     */
+    private int mGeneration;
+
+    private volatile long mTimeToLiveMs = DEFAULT_TIME_TO_LIVE_MS;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    public SignInStateCache(@NonNull SignInSource signInSource) {
+        mSignInSource = signInSource;
+    }
+
+    /**
+     * アプリ内で共有されるキャッシュを取得する
+     */
+    @NonNull
+    public static SignInStateCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 結果を有効とする時間を指定する
+     */
+    public void setTimeToLive(long time, TimeUnit unit) {
+        mTimeToLiveMs = unit.toMillis(time);
+    }
+
+    /**
+     * キャッシュされている結果を取得する
+     *
+     * 問い合わせは行わない。
+     *
+     * @return 有効な結果が無い場合はnull
+     */
+    @Nullable
+    public GoogleSignInResult getCachedResult(@NonNull PlayServiceConnectionSpec spec) {
+        return getCachedResult(spec.getKey());
+    }
+
+    @Nullable
+    private GoogleSignInResult getCachedResult(String key) {
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if ((SystemClock.elapsedRealtime() - entry.mSavedTime) >= mTimeToLiveMs) {
+                mEntries.remove(key);
+                return null;
+            }
+            return entry.mResult;
+        }
+    }
+
+    /**
+     * サインイン状態を取得する
+     *
+     * 有効な結果がキャッシュされていればそれを返し、無ければsilentSignInを行う。
+     * 成功した結果のみがキャッシュされ、失敗した場合は次回も問い合わせが行われる。
+     *
+     * @param spec           接続設定。Auth.GOOGLE_SIGN_IN_APIを含む必要がある
+     * @param cancelCallback キャンセルチェック。キャンセルしても他の呼び出し元の問い合わせは継続される
+     * @return silentSignInの結果
+     * @throws InterruptedException キャンセルされた
+     * @throws PlayServiceException 接続に失敗した
+     */
+    @NonNull
+    public GoogleSignInResult getSignInResult(@NonNull PlayServiceConnectionSpec spec, CancelCallback cancelCallback) throws InterruptedException, PlayServiceException {
+        final String key = spec.getKey();
+        final GoogleSignInResult cached = getCachedResult(key);
+        if (cached != null) {
+            mHitCount.incrementAndGet();
+            return cached;
+        }
+        mMissCount.incrementAndGet();
+
+        ResultLatch<GoogleSignInResult> flight = new ResultLatch<>();
+        ResultLatch<GoogleSignInResult> current = mFlights.putIfAbsent(key, flight);
+        if (current == null) {
+            final int generation;
+            synchronized (mEntries) {
+                generation = mGeneration;
+            }
+            PlayServiceScheduler.executeBlocking(() -> load(key, flight, spec, generation));
+            current = flight;
+        }
+        return awaitFlight(current, cancelCallback);
+    }
+
+    /**
+     * 共有の接続を使用してsilentSignInを行う
+     *
+     * サインイン済みであれば完了済みのOptionalPendingResultが返却されるため、待機は行われない。
+     */
+    @NonNull
+    static GoogleSignInResult silentSignIn(@NonNull PlayServiceConnectionSpec spec) throws Exception {
+        try (
+                PlayServiceConnection connection = PlayServiceConnector.getInstance().connect(spec, null)
+        ) {
+            return PlayServiceUtil.await(Auth.GoogleSignInApi.silentSignIn(connection.getClientIfSuccess()), null);
+        }
+    }
+
+    /**
+     * silentSignInを行い、flightへ通知する
+     */
+    private void load(String key, ResultLatch<GoogleSignInResult> flight, PlayServiceConnectionSpec spec, int generation) {
+        try {
+            GoogleSignInResult result = mSignInSource.silentSignIn(spec);
+            if (result.isSuccess()) {
+                synchronized (mEntries) {
+                    if (generation == mGeneration) {
+                        mEntries.put(key, new Entry(result, SystemClock.elapsedRealtime()));
+                    }
+                }
+            }
+            flight.set(result);
+        } catch (Throwable e) {
+            flight.abort(e instanceof PlayServiceException ? e : new PlayServiceException(e));
+        } finally {
+            mFlights.remove(key, flight);
+        }
+    }
+
+    /**
+     * 問い合わせの完了を待つ
+     *
+     * 他の呼び出し元と共有されるため、キャンセルされてもflight自体は中断しない。
+     */
+    private static GoogleSignInResult awaitFlight(ResultLatch<GoogleSignInResult> flight, CancelCallback cancelCallback) throws InterruptedException, PlayServiceException {
+        while (!flight.awaitDone(ResultLatch.getDefaultCancelCheckInterval(), TimeUnit.MILLISECONDS)) {
+            if (CallbackUtils.isCanceled(cancelCallback)) {
+                throw new InterruptedException();
+            }
+        }
+
+        if (flight.isAborted()) {
+            throw (PlayServiceException) flight.getAbortReason();
+        }
+        return flight.get();
+    }
+
+    /**
+     * 指定した設定のキャッシュを破棄する
+     */
+    public void invalidate(@NonNull PlayServiceConnectionSpec spec) {
+        final String key = spec.getKey();
+        synchronized (mEntries) {
+            ++mGeneration;
+            mEntries.remove(key);
+        }
+        // 破棄前の問い合わせには合流させない
+        mFlights.remove(key);
+    }
+
+    /**
+     * 全てのキャッシュを破棄する
+     *
+     * signOutはアプリ全体のサインイン状態に影響するため、設定にかかわらず破棄する。
+     */
+    public void invalidateAll() {
+        synchronized (mEntries) {
+            ++mGeneration;
+            mEntries.clear();
+        }
+        mFlights.clear();
+    }
+
+    /**
+     * キャッシュから返却した回数
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * 問い合わせが必要となった回数。進行中の問い合わせに合流した場合も含む
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    private static class Entry {
+        final GoogleSignInResult mResult;
+
+        final long mSavedTime;
+
+        Entry(GoogleSignInResult result, long savedTime) {
+            mResult = result;
+            mSavedTime = savedTime;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.eaglesakura.android.gms.client;
+
+import com.eaglesakura.android.gms.error.PlayServiceTimeoutException;
+import com.eaglesakura.android.gms.metrics.PlayServiceMetrics;
+import com.eaglesakura.android.gms.util.Deadline;
+import com.eaglesakura.android.gms.util.PlayServiceScheduler;
+import com.eaglesakura.android.gms.util.ResultLatch;
+import com.eaglesakura.lambda.CancelCallback;
+
+import android.support.annotation.NonNull;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同時に行う接続数を制限する
+ *
+ * 起動直後にアプリ・SDK・バックグラウンド処理から一斉に接続が要求されると、
+ * ユーザーが待っている接続までPlay Serviceへのbindが遅れる。
+ * 接続は{@link Priority}の高いものから順に開始され、同時に進行する接続は{@link #setMaxConcurrentConnects(int)}までとなる。
+ *
+ * 待機中にキャンセルされた接続は、開始されずにキューから破棄される。
+ */
+public class PlayServiceConnectScheduler {
+    /**
+     * 接続の優先度
+     */
+    public enum Priority {
+        /**
+         * ユーザーが結果を待っている
+         */
+        Foreground,
+
+        Default,
+
+        /**
+         * 同期処理等、遅れても問題ない
+         */
+        Background,
+    }
+
+    /**
+     * 接続開始の通知先
+     */
+    public interface AdmitListener {
+        /**
+         * 接続を開始できる状態になった
+         *
+         * 呼び出しは{@link PlayServiceScheduler#execute(Runnable)}で行われるため、ブロッキングを伴う処理は行わない。
+         * 接続が完了した時点で{@link Ticket#release()}を呼び出す。
+         */
+        void onAdmitted(@NonNull Ticket ticket);
+    }
+
+    public static final int DEFAULT_MAX_CONCURRENT_CONNECTS = 4;
+
+    private static final PlayServiceConnectScheduler sInstance = new PlayServiceConnectScheduler(PlayServiceScheduler::execute);
+
+    /**
+     * AdmitListenerの呼び出し先
+     * 枠を返却したスレッド(GMSのコールバックやUIスレッド)で次の接続を開始しないよう、別スレッドへ渡す
+     */
+    private final Executor mExecutor;
+
+    /**
+     * 待機中の接続
+     * 優先度が同じであれば登録順に取り出す
+     */
+    private final PriorityQueue<Ticket> mQueue = new PriorityQueue<>(11, (a, b) -> {
+        int result = a.mPriority.compareTo(b.mPriority);
+        if (result != 0) {
+            return result;
+        }
+        return (a.mSequence < b.mSequence ? -1 : (a.mSequence == b.mSequence ? 0 : 1));
+    });
+
+    private int mMaxConcurrentConnects = DEFAULT_MAX_CONCURRENT_CONNECTS;
+
+    /**
+     * 進行中の接続数
+     */
+    private int mInFlightCount;
+
+    private long mSequence;
+
+    private long mAdmittedCount;
+
+    private long mDroppedCount;
+
+    private long mTotalWaitNanos;
+
+    private long mMaxWaitNanos;
+
+    PlayServiceConnectScheduler(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * アプリ内で共有されるSchedulerを取得する
+     */
+    @NonNull
+    public static PlayServiceConnectScheduler getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 同時に進行できる接続数を指定する
+     */
+    public void setMaxConcurrentConnects(int maxConcurrentConnects) {
+        synchronized (mQueue) {
+            mMaxConcurrentConnects = Math.max(maxConcurrentConnects, 1);
+        }
+        dispatch();
+    }
+
+    /**
+     * 接続待ちを登録する
+     *
+     * 枠が空いた時点でlistenerが{@link PlayServiceScheduler#execute(Runnable)}で呼び出される。
+     *
+     * @return 登録した接続待ち。接続をやめる場合は{@link Ticket#release()}する
+     */
+    @NonNull
+    public Ticket submit(@NonNull Priority priority, @NonNull AdmitListener listener) {
+        final Ticket ticket;
+        synchronized (mQueue) {
+            ticket = new Ticket(priority, listener, mSequence++);
+            mQueue.add(ticket);
+        }
+        dispatch();
+        return ticket;
+    }
+
+    /**
+     * 接続を開始できるまで待機する
+     *
+     * @return 接続の枠。接続が完了した時点で{@link Ticket#release()}する
+     * @throws InterruptedException        待機中にキャンセルされた
+     * @throws PlayServiceTimeoutException 期限までに枠が空かなかった
+     */
+    @NonNull
+    public Ticket acquire(@NonNull Priority priority, @NonNull Deadline deadline, CancelCallback cancelCallback) throws InterruptedException, PlayServiceTimeoutException {
+        final ResultLatch<Ticket> latch = new ResultLatch<>();
+        final Ticket ticket = submit(priority, latch::set);
+        try {
+            return latch.await(cancelCallback, deadline);
+        } catch (InterruptedException | PlayServiceTimeoutException e) {
+            ticket.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 空いている枠に接続待ちを割り当てる
+     */
+    private void dispatch() {
+        while (true) {
+            final Ticket ticket;
+            final Priority priority;
+            final int queueDepth;
+            final long waitNanos;
+            synchronized (mQueue) {
+                if (mInFlightCount >= mMaxConcurrentConnects || mQueue.isEmpty()) {
+                    return;
+                }
+                ticket = mQueue.poll();
+                ticket.mState = Ticket.STATE_ADMITTED;
+                ++mInFlightCount;
+
+                priority = ticket.mPriority;
+                waitNanos = System.nanoTime() - ticket.mSubmitTime;
+                queueDepth = mQueue.size();
+                ++mAdmittedCount;
+                mTotalWaitNanos += waitNanos;
+                mMaxWaitNanos = Math.max(mMaxWaitNanos, waitNanos);
+            }
+
+            if (PlayServiceMetrics.isEnabled()) {
+                PlayServiceMetrics.getInstance().onConnectAdmitted(priority, waitNanos, queueDepth);
+            }
+
+            mExecutor.execute(() -> admit(ticket));
+        }
+    }
+
+    /**
+     * 割り当てられた枠をlistenerへ通知する
+     */
+    private void admit(Ticket ticket) {
+        synchronized (mQueue) {
+            if (ticket.mState == Ticket.STATE_RELEASED) {
+                // 通知までの間に返却された
+                return;
+            }
+        }
+
+        try {
+            ticket.mListener.onAdmitted(ticket);
+        } catch (RuntimeException e) {
+            ticket.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 待機中の接続数を取得する
+     */
+    public int getQueueDepth() {
+        synchronized (mQueue) {
+            return mQueue.size();
+        }
+    }
+
+    /**
+     * 進行中の接続数を取得する
+     */
+    public int getInFlightCount() {
+        synchronized (mQueue) {
+            return mInFlightCount;
+        }
+    }
+
+    /**
+     * 開始された接続数
+     */
+    public long getAdmittedCount() {
+        synchronized (mQueue) {
+            return mAdmittedCount;
+        }
+    }
+
+    /**
+     * 待機中にキャンセルされ、破棄された接続数
+     */
+    public long getDroppedCount() {
+        synchronized (mQueue) {
+            return mDroppedCount;
+        }
+    }
+
+    /**
+     * 開始された接続の平均待機時間(ms)
+     */
+    public double getAverageWaitTimeMs() {
+        synchronized (mQueue) {
+            if (mAdmittedCount == 0) {
+                return 0;
+            }
+            return (double) TimeUnit.NANOSECONDS.toMicros(mTotalWaitNanos) / 1000.0 / mAdmittedCount;
+        }
+    }
+
+    /**
+     * 開始された接続の最大待機時間(ms)
+     */
+    public long getMaxWaitTimeMs() {
+        synchronized (mQueue) {
+            return TimeUnit.NANOSECONDS.toMillis(mMaxWaitNanos);
+        }
+    }
+
+    /**
+     * 接続待ち、もしくは進行中の接続が使用している枠
+     */
+    public class Ticket {
+        static final int STATE_QUEUED = 0;
+
+        static final int STATE_ADMITTED = 1;
+
+        static final int STATE_RELEASED = 2;
+
+        Priority mPriority;
+
+        final AdmitListener mListener;
+
+        final long mSequence;
+
+        final long mSubmitTime = System.nanoTime();
+
+        /**
+         * mQueueのロック内でのみ操作する
+         */
+        int mState = STATE_QUEUED;
+
+        Ticket(Priority priority, AdmitListener listener, long sequence) {
+            mPriority = priority;
+            mListener = listener;
+            mSequence = sequence;
+        }
+
+        /**
+         * 待機中であれば優先度を引き上げる
+         *
+         * 低い優先度で待機中の接続に、より高い優先度の呼び出し元が合流した場合に使用する。
+         */
+        public void promote(@NonNull Priority priority) {
+            synchronized (mQueue) {
+                if (mState != STATE_QUEUED || priority.compareTo(mPriority) >= 0) {
+                    return;
+                }
+                // PriorityQueueは要素の変更を検知できないため、入れ直す
+                mQueue.remove(this);
+                mPriority = priority;
+                mQueue.add(this);
+            }
+        }
+
+        /**
+         * 枠を返却する
+         *
+         * 待機中であればキューから破棄され、進行中であれば次の接続待ちが開始される。
+         * 複数回呼び出しても問題ない。
+         */
+        public void release() {
+            synchronized (mQueue) {
+                if (mState == STATE_QUEUED) {
+                    mQueue.remove(this);
+                    ++mDroppedCount;
+                    mState = STATE_RELEASED;
+                    return;
+                } else if (mState == STATE_RELEASED) {
+                    return;
+                }
+                mState = STATE_RELEASED;
+                --mInFlightCount;
+            }
+            dispatch();
+        }
+
+        @NonNull
+        public Priority getPriority() {
+            synchronized (mQueue) {
+                return mPriority;
+            }
+        }
+    }
+}
@@ -8,17 +8,35 @@ import com.google.android.gms.common.api.GoogleApiClient;
 import com.eaglesakura.android.gms.error.DeveloperImplementFailedException;
 import com.eaglesakura.android.gms.error.PlayServiceConnectException;
 import com.eaglesakura.android.gms.error.PlayServiceException;
+import com.eaglesakura.android.gms.error.PlayServiceTimeoutException;
 import com.eaglesakura.android.gms.error.RequireRetryConnectException;
-import com.eaglesakura.lambda.CallbackUtils;
+import com.eaglesakura.android.gms.metrics.PlayServiceMetrics;
+import com.eaglesakura.android.gms.util.Deadline;
+import com.eaglesakura.android.gms.util.PlayServiceUtil;
+import com.eaglesakura.android.gms.util.ResultLatch;
 import com.eaglesakura.lambda.CancelCallback;
-import com.eaglesakura.thread.Holder;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class PlayServiceConnection implements Closeable {
     public enum Status {
@@ -27,6 +45,41 @@ public class PlayServiceConnection implements Closeable {
         Failed,
     }
 
+    /**
+     * 接続結果の分類
+     */
+    public enum ResultType {
+        /**
+         * 接続済み
+         */
+        Connected,
+
+        /**
+         * 接続が中断されたため、リトライが必要
+         */
+        Suspended,
+
+        /**
+         * ユーザーのサインインが必要
+         */
+        RequireSignIn,
+
+        /**
+         * PlayServiceのアップデートが必要
+         */
+        RequireUpdatePlayService,
+
+        /**
+         * 開発側の実装エラー
+         */
+        DeveloperError,
+
+        /**
+         * その他の接続失敗
+         */
+        Failed,
+    }
+
     private Bundle mConnectedHint;
 
     private int mCause;
@@ -35,21 +88,85 @@ public class PlayServiceConnection implements Closeable {
 
     private final Status mStatus;
 
+    /**
+     * 生成時に確定する接続結果の分類
+     */
+    private final ResultType mResultType;
+
+    /**
+     * Builderごとの接続モードの判定結果
+     *
+     * GoogleApiClient.Builderは接続対象のAPIを公開しないため、Builderのインスタンスをキーとする。
+     */
+    private static final Map<GoogleApiClient.Builder, Integer> sBuilderSignInModes = new WeakHashMap<>();
+
+    /**
+     * 接続設定ごとの接続モードの判定結果
+     */
+    private static final Map<String, Integer> sSpecSignInModes = new ConcurrentHashMap<>();
+
+    private static final AtomicLong sSignInModeFallbackCount = new AtomicLong();
+
     private GoogleApiClient mClient;
 
+    /**
+     * APIごとの接続結果のスナップショット
+     */
+    private volatile Map<Api<?>, ConnectionResult> mApiResults = Collections.emptyMap();
+
+    /**
+     * 接続後の状態変化を監視する
+     */
+    private final StateTracker mStateTracker = new StateTracker();
+
+    /**
+     * 現在の状態
+     */
+    private volatile State mState;
+
+    private final List<StateSubscription> mStateSubscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * この接続を参照している数
+     */
+    private final AtomicInteger mRefCount = new AtomicInteger(1);
+
     PlayServiceConnection(Bundle connectedHint) {
         mStatus = Status.Connected;
+        mResultType = ResultType.Connected;
         mConnectedHint = connectedHint;
+        mState = new State(0, Status.Connected, 0, null);
     }
 
     PlayServiceConnection(int cause) {
         mStatus = Status.Suspended;
+        mResultType = ResultType.Suspended;
         mCause = cause;
+        mState = new State(0, Status.Suspended, cause, null);
     }
 
     PlayServiceConnection(ConnectionResult failedResult) {
         mFailedResult = failedResult;
         mStatus = Status.Failed;
+        mResultType = toResultType(failedResult.getErrorCode());
+        mState = new State(0, Status.Failed, 0, failedResult);
+    }
+
+    /**
+     * 接続失敗時のエラーコードを分類する
+     */
+    static ResultType toResultType(int errorCode) {
+        switch (errorCode) {
+            case ConnectionResult.SIGN_IN_REQUIRED:
+            case ConnectionResult.SIGN_IN_FAILED:
+                return ResultType.RequireSignIn;
+            case ConnectionResult.SERVICE_VERSION_UPDATE_REQUIRED:
+                return ResultType.RequireUpdatePlayService;
+            case ConnectionResult.DEVELOPER_ERROR:
+                return ResultType.DeveloperError;
+            default:
+                return ResultType.Failed;
+        }
     }
 
     public Bundle getConnectedHint() {
@@ -72,25 +189,108 @@ public class PlayServiceConnection implements Closeable {
         return mStatus == Status.Connected;
     }
 
+    /**
+     * 接続結果の分類を取得する
+     *
+     * {@link #getClientIfSuccess()}と異なり例外を生成しないため、失敗が頻繁に発生する箇所で使用する。
+     */
+    @NonNull
+    public ResultType getResultType() {
+        return mResultType;
+    }
+
     /**
      * 指定したAPIに接続が完了していたらtrue
      */
     public boolean isConnectionSuccess(Api<?>... api) {
         for (Api item : api) {
-            if (!mClient.getConnectionResult(item).isSuccess()) {
+            if (!getConnectionResult(item).isSuccess()) {
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * 指定したAPIのうち、接続が完了しているものを取得する
+     */
+    @NonNull
+    public Set<Api<?>> getUsableApis(Api<?>... api) {
+        Set<Api<?>> result = new HashSet<>();
+        for (Api<?> item : api) {
+            if (getConnectionResult(item).isSuccess()) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * APIごとの接続結果を取得する
+     *
+     * 結果は接続中のスナップショットとして保持され、再接続・中断の通知を受けるまでClientへの問い合わせは行われない。
+     * 問い合わせ中に状態が変化した場合、その結果はスナップショットへ保持しない。
+     */
+    @NonNull
+    public ConnectionResult getConnectionResult(@NonNull Api<?> api) {
+        // 状態の変化と同時にスナップショットが破棄されるため、問い合わせ前の状態を確認しておく
+        final State state = mState;
+        ConnectionResult result = mApiResults.get(api);
+        if (result == null && mClient == null) {
+            // 記録済みの失敗から生成された接続はClientを持たないため、接続時の失敗を返す
+            return (mFailedResult != null ? mFailedResult : new ConnectionResult(ConnectionResult.CANCELED));
+        } else if (result == null) {
+            result = mClient.getConnectionResult(api);
+            synchronized (this) {
+                if (mState != state) {
+                    // 破棄済みのスナップショットへ古い結果を書き戻さない
+                    return result;
+                }
+                // 読み取り側がロック無しで参照できるよう、コピーを差し替える
+                Map<Api<?>, ConnectionResult> snapshot = new HashMap<>(mApiResults);
+                snapshot.put(api, result);
+                mApiResults = Collections.unmodifiableMap(snapshot);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 指定したAPIの接続結果をまとめて取得し、スナップショットとする
+     */
+    void captureConnectionResults(@NonNull Collection<Api<?>> apis) {
+        final State state = mState;
+        Map<Api<?>, ConnectionResult> snapshot = new HashMap<>();
+        for (Api<?> api : apis) {
+            snapshot.put(api, mClient.getConnectionResult(api));
+        }
+        synchronized (this) {
+            if (mState == state) {
+                mApiResults = Collections.unmodifiableMap(snapshot);
+            }
+        }
+    }
+
+    /**
+     * 接続結果のエラーコードを取得する
+     *
+     * Failedの場合はConnectionResultのエラーコード、Suspendedの場合はその理由、それ以外は{@link ConnectionResult#SUCCESS}となる。
+     */
+    int getErrorCode() {
+        if (mFailedResult != null) {
+            return mFailedResult.getErrorCode();
+        } else if (mStatus == Status.Suspended) {
+            return mCause;
+        } else {
+            return ConnectionResult.SUCCESS;
+        }
+    }
+
     /**
      * サインインが必要な状態である場合はtrue
      */
     public boolean isRequreSignIn() {
-        return mFailedResult != null
-                && (mFailedResult.getErrorCode() == ConnectionResult.SIGN_IN_REQUIRED ||
-                mFailedResult.getErrorCode() == ConnectionResult.SIGN_IN_FAILED);
+        return mResultType == ResultType.RequireSignIn;
     }
 
     /**
@@ -104,52 +304,141 @@ public class PlayServiceConnection implements Closeable {
      * PlayServiceのアップデートが必要
      */
     public boolean isRequireUpdatePlayService() {
-        return mFailedResult != null
-                && mFailedResult.getErrorCode() == ConnectionResult.SERVICE_VERSION_UPDATE_REQUIRED;
+        return mResultType == ResultType.RequireUpdatePlayService;
     }
 
     /**
      * 開発側の実装エラーである場合true
      */
     public boolean isDeveloperError() {
-        return mFailedResult != null
-                && mFailedResult.getErrorCode() == ConnectionResult.DEVELOPER_ERROR;
+        return mResultType == ResultType.DeveloperError;
+    }
+
+    /**
+     * 参照を追加する
+     *
+     * 同じ接続を複数の呼び出し元で共有する場合に使用し、全ての参照がcloseされた時点で切断される。
+     */
+    void retain(int count) {
+        mRefCount.addAndGet(count);
     }
 
+    /**
+     * 接続を閉じる。
+     *
+     * 接続が共有されている場合、全ての参照がcloseされた時点で切断する。
+     */
     @Override
     public void close() throws IOException {
+        release();
+    }
+
+    /**
+     * 接続を閉じる。
+     *
+     * {@link #close()}と同じだが、例外を宣言しないためfinally等から直接呼び出せる。
+     */
+    public void release() {
+        if (mRefCount.decrementAndGet() > 0 || mClient == null) {
+            return;
+        }
+
         try {
+            mClient.unregisterConnectionCallbacks(mStateTracker);
+            mClient.unregisterConnectionFailedListener(mStateTracker);
+            mStateSubscriptions.clear();
             mClient.disconnect();
         } catch (Exception e) {
-            e.printStackTrace();
+            if (PlayServiceMetrics.isEnabled()) {
+                PlayServiceMetrics.getInstance().onUncaughtError(e);
+            }
         }
     }
 
-    public GoogleApiClient getClient() {
-        return mClient;
+    /**
+     * Clientを接続し、以後の状態変化を監視する
+     *
+     * 接続済みのClientへ登録するとonConnectedが改めて呼び出されるが、状態は変化していないため無視される。
+     */
+    void attach(GoogleApiClient client) {
+        mClient = client;
+        client.registerConnectionCallbacks(mStateTracker);
+        client.registerConnectionFailedListener(mStateTracker);
     }
 
     /**
-     * 接続に成功した場合のみClientを取得し、それ以外は例外を投げる。
+     * 現在の状態を取得する
+     *
+     * {@link #getStatus()}は接続時の結果であり、こちらは以後の中断・再接続を反映する。
      */
-    public GoogleApiClient getClientIfSuccess() throws PlayServiceException {
-        try {
-            if (mFailedResult != null) {
-                if (isDeveloperError()) {
-                    throw new DeveloperImplementFailedException(mFailedResult);
-                }
+    @NonNull
+    public State getState() {
+        return mState;
+    }
 
-                throw new PlayServiceConnectException(mFailedResult);
+    /**
+     * 状態変化の通知を登録する
+     *
+     * 登録直後に現在の状態が通知される。通知は{@link PlayServiceUtil#getCallbackExecutor()}で行われる。
+     */
+    public void addStateListener(@NonNull StateListener listener) {
+        addStateListener(PlayServiceUtil.getCallbackExecutor(), listener);
+    }
+
+    /**
+     * 状態変化の通知を登録する
+     *
+     * 通知はListenerごとに直列化され、処理中に複数回変化した場合は最新の状態のみが通知される。
+     * そのため、Listenerの処理が遅くても通知が溜まり続けることはない。
+     *
+     * @param executor 通知を行うExecutor
+     */
+    public void addStateListener(@NonNull Executor executor, @NonNull StateListener listener) {
+        StateSubscription subscription = new StateSubscription(executor, listener);
+        mStateSubscriptions.add(subscription);
+        subscription.signal();
+    }
+
+    public void removeStateListener(@NonNull StateListener listener) {
+        for (StateSubscription subscription : mStateSubscriptions) {
+            if (subscription.mListener == listener) {
+                subscription.mRemoved = true;
+                mStateSubscriptions.remove(subscription);
             }
+        }
+    }
 
-            if (mStatus == Status.Suspended) {
-                throw new RequireRetryConnectException(mCause);
+    private void onStateChanged(Status status, int cause, @Nullable ConnectionResult failedResult) {
+        synchronized (this) {
+            if (status == Status.Connected && mState.mStatus == Status.Connected) {
+                // 再接続は必ず中断・失敗を経由するため、接続中の通知は登録時のものであり変化ではない
+                return;
             }
+            mApiResults = Collections.emptyMap();
+            mState = new State(mState.mVersion + 1, status, cause, failedResult);
+        }
+        for (StateSubscription subscription : mStateSubscriptions) {
+            subscription.signal();
+        }
+    }
 
+    public GoogleApiClient getClient() {
+        return mClient;
+    }
 
-            return getClient();
-        } catch (PlayServiceException e) {
-            throw e;
+    /**
+     * 接続に成功した場合のみClientを取得し、それ以外は例外を投げる。
+     */
+    public GoogleApiClient getClientIfSuccess() throws PlayServiceException {
+        switch (mResultType) {
+            case Connected:
+                return mClient;
+            case Suspended:
+                throw new RequireRetryConnectException(mCause);
+            case DeveloperError:
+                throw new DeveloperImplementFailedException(mFailedResult);
+            default:
+                throw new PlayServiceConnectException(mFailedResult);
         }
     }
 
@@ -166,46 +455,145 @@ public class PlayServiceConnection implements Closeable {
      * @see GoogleApiClient#SIGN_IN_MODE_OPTIONAL
      */
     public static PlayServiceConnection newInstance(GoogleApiClient.Builder builder, int connectMode, CancelCallback cancelCallback) throws InterruptedException {
-        final Holder<PlayServiceConnection> holder = new Holder<>();
+        try {
+            return newInstance(builder, connectMode, Deadline.NONE, cancelCallback);
+        } catch (PlayServiceTimeoutException e) {
+            // 期限が無いため、ここには到達しない
+            throw new IllegalStateException(e);
+        }
+    }
 
-        final GoogleApiClient.ConnectionCallbacks connectionCallbacks = new GoogleApiClient.ConnectionCallbacks() {
-            @Override
-            public void onConnected(@Nullable Bundle connectionHint) {
-                holder.set(new PlayServiceConnection(connectionHint));
-            }
+    /**
+     * 接続の枠を確保してから接続を開始し、その結果を待つ
+     *
+     * キャンセルされるか期限を過ぎた場合は接続中のClientを切断する。
+     *
+     * @param connector 枠の確保後に接続を開始する
+     * @param priority  枠を確保する優先度
+     */
+    private static PlayServiceConnection connect(AsyncConnector connector, PlayServiceConnectScheduler.Priority priority, Deadline deadline, CancelCallback cancelCallback) throws InterruptedException, PlayServiceTimeoutException {
+        deadline.assertNotExpired();
+        final long startTime = PlayServiceMetrics.startTime();
+        final PlayServiceConnectScheduler.Ticket ticket =
+                PlayServiceConnectScheduler.getInstance().acquire(priority, deadline, cancelCallback);
+        final ResultLatch<PlayServiceConnection> latch = new ResultLatch<>();
+        final GoogleApiClient client;
+        try {
+            client = connector.connect(connection -> {
+                ticket.release();
+                latch.set(connection);
+            });
+        } catch (RuntimeException e) {
+            ticket.release();
+            throw e;
+        }
 
-            @Override
-            public void onConnectionSuspended(int cause) {
-                holder.set(new PlayServiceConnection(cause));
-            }
-        };
-        final GoogleApiClient.OnConnectionFailedListener failedListener = result -> {
-            holder.set(new PlayServiceConnection(result));
-        };
+        // コールバックで起こされるまでparkする
+        try {
+            return latch.await(cancelCallback, deadline);
+        } catch (InterruptedException | PlayServiceTimeoutException e) {
+            ticket.release();
+            onAwaitAborted(client, startTime);
+            throw e;
+        }
+    }
+
+    private interface AsyncConnector {
+        GoogleApiClient connect(ConnectListener listener);
+    }
+
+    private static void onAwaitAborted(GoogleApiClient client, long startTime) {
+        client.disconnect();
+        if (startTime != 0) {
+            PlayServiceMetrics.getInstance().onConnectCanceled(null, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * 期限付きでAPIに対して接続を行う
+     *
+     * @param builder        接続対象のAPI
+     * @param connectMode    接続モード
+     * @param deadline       接続の期限
+     * @param cancelCallback キャンセルチェック
+     * @return 接続済みの結果
+     * @throws InterruptedException        接続中にキャンセルされた
+     * @throws PlayServiceTimeoutException 期限までに接続が完了しなかった
+     */
+    public static PlayServiceConnection newInstance(GoogleApiClient.Builder builder, int connectMode, Deadline deadline, CancelCallback cancelCallback) throws InterruptedException, PlayServiceTimeoutException {
+        return newInstance(builder, connectMode, PlayServiceConnectScheduler.Priority.Default, deadline, cancelCallback);
+    }
+
+    /**
+     * 優先度を指定し、期限付きでAPIに対して接続を行う
+     *
+     * 同時接続数の上限に達している場合、優先度の高い接続から順に開始される。
+     *
+     * @param priority 接続を開始する優先度
+     * @see #newInstance(GoogleApiClient.Builder, int, Deadline, CancelCallback)
+     */
+    public static PlayServiceConnection newInstance(GoogleApiClient.Builder builder, int connectMode, PlayServiceConnectScheduler.Priority priority, Deadline deadline, CancelCallback cancelCallback) throws InterruptedException, PlayServiceTimeoutException {
+        return connect(listener -> newInstanceAsync(builder, connectMode, listener), priority, deadline, cancelCallback);
+    }
+
+    /**
+     * 期限付きでAPIに対して接続を行う。接続モードは自動で判定される。
+     *
+     * @see #newInstance(GoogleApiClient.Builder, int, Deadline, CancelCallback)
+     */
+    public static PlayServiceConnection newInstance(GoogleApiClient.Builder builder, Deadline deadline, CancelCallback cancelCallback) throws InterruptedException, PlayServiceTimeoutException {
+        return newInstance(builder, PlayServiceConnectScheduler.Priority.Default, deadline, cancelCallback);
+    }
+
+    /**
+     * 優先度を指定し、期限付きでAPIに対して接続を行う。接続モードは自動で判定される。
+     *
+     * @param priority 接続を開始する優先度
+     * @see #newInstance(GoogleApiClient.Builder, int, PlayServiceConnectScheduler.Priority, Deadline, CancelCallback)
+     */
+    public static PlayServiceConnection newInstance(GoogleApiClient.Builder builder, PlayServiceConnectScheduler.Priority priority, Deadline deadline, CancelCallback cancelCallback) throws InterruptedException, PlayServiceTimeoutException {
+        return connect(listener -> newInstanceAsync(builder, listener), priority, deadline, cancelCallback);
+    }
 
+    /**
+     * APIに対して非同期に接続を行う
+     *
+     * 結果はPlayServiceのコールバックスレッドから一度だけlistenerへ通知される。
+     * 通知前に接続を中断する場合、戻り値のClientを{@link GoogleApiClient#disconnect()}する。
+     *
+     * @param builder     接続対象のAPI
+     * @param connectMode 接続モード
+     * @param listener    接続結果の通知先
+     * @return 接続中のClient
+     * @throws IllegalStateException 接続モードがAPIと一致しない
+     * @see GoogleApiClient#SIGN_IN_MODE_REQUIRED
+     * @see GoogleApiClient#SIGN_IN_MODE_OPTIONAL
+     */
+    public static GoogleApiClient newInstanceAsync(GoogleApiClient.Builder builder, int connectMode, ConnectListener listener) {
+        if (PlayServiceMetrics.isEnabled()) {
+            PlayServiceMetrics.getInstance().onConnectStart(null, connectMode);
+        }
+        return connectAsync(builder, connectMode, null, listener);
+    }
+
+    /**
+     * Clientを生成して接続を開始する。接続開始の計測は呼び出し元で行う。
+     *
+     * @param apiKey 計測値に記録する接続対象のキー
+     */
+    private static GoogleApiClient connectAsync(GoogleApiClient.Builder builder, int connectMode, @Nullable String apiKey, ConnectListener listener) {
         final GoogleApiClient client = builder.build();
+        final ConnectRequest request = new ConnectRequest(client, apiKey, listener);
+        client.registerConnectionCallbacks(request);
+        client.registerConnectionFailedListener(request);
         try {
-            client.registerConnectionCallbacks(connectionCallbacks);
-            client.registerConnectionFailedListener(failedListener);
-
             // OptionによってはREQUIRE/OPTIONALを切り替えなければならない
             client.connect(connectMode);
-
-            PlayServiceConnection item;
-            while ((item = holder.get()) == null) {
-                if (CallbackUtils.isCanceled(cancelCallback)) {
-                    client.disconnect();
-                    throw new InterruptedException();
-                }
-            }
-
-            // クライアントを接続
-            item.mClient = client;
-            return item;
-        } finally {
-            client.unregisterConnectionFailedListener(failedListener);
-            client.unregisterConnectionCallbacks(connectionCallbacks);
+        } catch (RuntimeException e) {
+            request.unregister();
+            throw e;
         }
+        return client;
     }
 
     /**
@@ -218,9 +606,286 @@ public class PlayServiceConnection implements Closeable {
      */
     public static PlayServiceConnection newInstance(GoogleApiClient.Builder builder, CancelCallback cancelCallback) throws InterruptedException {
         try {
-            return newInstance(builder, GoogleApiClient.SIGN_IN_MODE_REQUIRED, cancelCallback);
+            return newInstance(builder, Deadline.NONE, cancelCallback);
+        } catch (PlayServiceTimeoutException e) {
+            // 期限が無いため、ここには到達しない
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * APIに対して非同期に接続を行う
+     *
+     * 接続モードは同じBuilderでの前回の接続結果から判定され、
+     * {@link GoogleApiClient#SIGN_IN_MODE_REQUIRED}が使用できない場合のみ{@link GoogleApiClient#SIGN_IN_MODE_OPTIONAL}で接続し直す。
+     *
+     * 判定結果はBuilderのインスタンスごとに記録されるため、接続のたびにBuilderを生成すると毎回判定し直す。
+     * 同じ設定での判定結果を引き継ぐ場合は{@link PlayServiceConnector}等から{@link PlayServiceConnectionSpec}で接続する。
+     *
+     * @param builder  接続対象のAPI
+     * @param listener 接続結果の通知先
+     * @return 接続中のClient
+     */
+    public static GoogleApiClient newInstanceAsync(GoogleApiClient.Builder builder, ConnectListener listener) {
+        Integer mode;
+        synchronized (sBuilderSignInModes) {
+            mode = sBuilderSignInModes.get(builder);
+        }
+
+        SignInModeResult result = newInstanceAsync(builder, null, (mode != null ? mode : GoogleApiClient.SIGN_IN_MODE_REQUIRED), listener);
+        if (mode == null || mode != result.mMode) {
+            synchronized (sBuilderSignInModes) {
+                sBuilderSignInModes.put(builder, result.mMode);
+            }
+        }
+        return result.mClient;
+    }
+
+    /**
+     * 接続設定に適した接続モードで非同期に接続を行う
+     *
+     * 接続モードは{@link PlayServiceConnectionSpec#getSignInMode()}を初期値とし、設定ごとに判定結果を記録する。
+     */
+    static GoogleApiClient newInstanceAsync(PlayServiceConnectionSpec spec, ConnectListener listener) {
+        final String key = spec.getKey();
+        final Integer mode = sSpecSignInModes.get(key);
+        final GoogleApiClient.Builder builder = spec.newBuilder();
+
+        SignInModeResult result = newInstanceAsync(builder, spec, (mode != null ? mode : spec.getSignInMode()), listener);
+        if (mode == null || mode != result.mMode) {
+            sSpecSignInModes.put(key, result.mMode);
+        }
+        return result.mClient;
+    }
+
+    /**
+     * 指定モードで接続し、{@link GoogleApiClient#SIGN_IN_MODE_REQUIRED}が使用できなかった場合のみ
+     * {@link GoogleApiClient#SIGN_IN_MODE_OPTIONAL}で接続し直す
+     *
+     * @param spec 接続し直す場合のBuilder生成元。nullの場合はbuilderを再利用する
+     */
+    private static SignInModeResult newInstanceAsync(GoogleApiClient.Builder builder, @Nullable PlayServiceConnectionSpec spec, int connectMode, ConnectListener listener) {
+        final String apiKey = (spec != null ? spec.getKey() : null);
+        if (PlayServiceMetrics.isEnabled()) {
+            // 接続し直した場合も1回の接続として記録する
+            PlayServiceMetrics.getInstance().onConnectStart(apiKey, connectMode);
+        }
+        try {
+            return new SignInModeResult(connectAsync(builder, connectMode, apiKey, listener), connectMode);
         } catch (IllegalStateException e) {
-            return newInstance(builder, GoogleApiClient.SIGN_IN_MODE_OPTIONAL, cancelCallback);
+            if (connectMode != GoogleApiClient.SIGN_IN_MODE_REQUIRED) {
+                throw e;
+            }
+        }
+
+        // 接続モードの判定に失敗したため、Clientを作り直す
+        sSignInModeFallbackCount.incrementAndGet();
+        if (PlayServiceMetrics.isEnabled()) {
+            PlayServiceMetrics.getInstance().onSignInModeFallback(apiKey);
+        }
+        GoogleApiClient.Builder retryBuilder = (spec != null ? spec.newBuilder() : builder);
+        return new SignInModeResult(connectAsync(retryBuilder, GoogleApiClient.SIGN_IN_MODE_OPTIONAL, apiKey, listener), GoogleApiClient.SIGN_IN_MODE_OPTIONAL);
+    }
+
+    /**
+     * {@link GoogleApiClient#SIGN_IN_MODE_REQUIRED}で接続できず、Clientを作り直した回数を取得する
+     *
+     * 同じBuilder/設定では判定結果が記録されるため、通常は設定ごとに最大1回となる。
+     */
+    public static long getSignInModeFallbackCount() {
+        return sSignInModeFallbackCount.get();
+    }
+
+    private static class SignInModeResult {
+        final GoogleApiClient mClient;
+
+        final int mMode;
+
+        SignInModeResult(GoogleApiClient client, int mode) {
+            mClient = client;
+            mMode = mode;
+        }
+    }
+
+    /**
+     * 非同期接続の結果を受け取る
+     */
+    public interface ConnectListener {
+        void onConnectionResult(PlayServiceConnection connection);
+    }
+
+    /**
+     * 接続状態
+     */
+    public static class State {
+        /**
+         * 変化ごとに加算される
+         */
+        final long mVersion;
+
+        final Status mStatus;
+
+        final int mCause;
+
+        final ConnectionResult mFailedResult;
+
+        State(long version, Status status, int cause, ConnectionResult failedResult) {
+            mVersion = version;
+            mStatus = status;
+            mCause = cause;
+            mFailedResult = failedResult;
+        }
+
+        @NonNull
+        public Status getStatus() {
+            return mStatus;
+        }
+
+        /**
+         * Suspendedの場合、その理由
+         */
+        public int getCause() {
+            return mCause;
+        }
+
+        /**
+         * Failedの場合、その結果
+         */
+        @Nullable
+        public ConnectionResult getFailedResult() {
+            return mFailedResult;
+        }
+    }
+
+    /**
+     * 接続状態の変化を受け取る
+     */
+    public interface StateListener {
+        void onStateChanged(@NonNull PlayServiceConnection connection, @NonNull State state);
+    }
+
+    /**
+     * Clientからの通知を状態として記録する
+     */
+    private class StateTracker implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+        @Override
+        public void onConnected(@Nullable Bundle connectionHint) {
+            onStateChanged(Status.Connected, 0, null);
+        }
+
+        @Override
+        public void onConnectionSuspended(int cause) {
+            onStateChanged(Status.Suspended, cause, null);
+        }
+
+        @Override
+        public void onConnectionFailed(@NonNull ConnectionResult result) {
+            onStateChanged(Status.Failed, 0, result);
+        }
+    }
+
+    /**
+     * Listenerごとの通知状況
+     *
+     * 実行待ちのタスクは常に1つまでとし、実行時点の最新状態を通知する。
+     */
+    private class StateSubscription implements Runnable {
+        final Executor mExecutor;
+
+        final StateListener mListener;
+
+        final AtomicBoolean mScheduled = new AtomicBoolean();
+
+        volatile boolean mRemoved;
+
+        /**
+         * 通知済みの状態。実行中のタスクからのみ参照する
+         */
+        long mDeliveredVersion = -1;
+
+        StateSubscription(Executor executor, StateListener listener) {
+            mExecutor = executor;
+            mListener = listener;
+        }
+
+        void signal() {
+            if (mScheduled.compareAndSet(false, true)) {
+                mExecutor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final State state = mState;
+                if (!mRemoved && state.mVersion != mDeliveredVersion) {
+                    mDeliveredVersion = state.mVersion;
+                    mListener.onStateChanged(PlayServiceConnection.this, state);
+                }
+
+                mScheduled.set(false);
+                // 通知中に変化していれば続けて通知する
+                if (mRemoved || mState.mVersion == mDeliveredVersion || !mScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 接続コールバックを受け取り、最初の結果だけをListenerへ通知する
+     */
+    private static class ConnectRequest implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+        final GoogleApiClient mClient;
+
+        final ConnectListener mListener;
+
+        final AtomicBoolean mDelivered = new AtomicBoolean();
+
+        @Nullable
+        final String mApiKey;
+
+        final long mStartTime = PlayServiceMetrics.startTime();
+
+        ConnectRequest(GoogleApiClient client, @Nullable String apiKey, ConnectListener listener) {
+            mClient = client;
+            mApiKey = apiKey;
+            mListener = listener;
+        }
+
+        @Override
+        public void onConnected(@Nullable Bundle connectionHint) {
+            deliver(new PlayServiceConnection(connectionHint));
+        }
+
+        @Override
+        public void onConnectionSuspended(int cause) {
+            deliver(new PlayServiceConnection(cause));
+        }
+
+        @Override
+        public void onConnectionFailed(@NonNull ConnectionResult result) {
+            deliver(new PlayServiceConnection(result));
+        }
+
+        void unregister() {
+            mClient.unregisterConnectionFailedListener(this);
+            mClient.unregisterConnectionCallbacks(this);
+        }
+
+        void deliver(PlayServiceConnection item) {
+            if (!mDelivered.compareAndSet(false, true)) {
+                return;
+            }
+            unregister();
+
+            if (mStartTime != 0) {
+                PlayServiceMetrics.getInstance().onConnect(mApiKey, System.nanoTime() - mStartTime, item.mStatus, item.getErrorCode());
+            }
+
+            // クライアントを接続
+            item.attach(mClient);
+            mListener.onConnectionResult(item);
         }
     }
 }
@@ -0,0 +1,312 @@
+package com.eaglesakura.android.gms.client;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+
+import com.eaglesakura.android.gms.error.PlayServiceException;
+import com.eaglesakura.android.gms.util.PlayServiceScheduler;
+import com.eaglesakura.lambda.CancelCallback;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 接続済みの{@link PlayServiceConnection}を設定ごとに共有する
+ *
+ * 同じ{@link PlayServiceConnectionSpec#getKey()}を持つ接続は1つのClientを共有し、
+ * 参照カウントが0になってから一定時間経過したClientは切断される。
+ */
+public class PlayServiceConnectionPool {
+    /**
+     * 未使用の接続を維持するデフォルト時間(ms)
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 1000 * 30;
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    private volatile long mIdleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    private final AtomicLong mConnectCount = new AtomicLong();
+
+    private final AtomicLong mConnectTimeMs = new AtomicLong();
+
+    @Nullable
+    private volatile PlayServiceRetryPolicy mRetryPolicy;
+
+    /**
+     * 共有されている接続を取得する。
+     *
+     * 接続済みのClientが無い場合は新規に接続する。
+     * 使用後は必ず{@link Lease#close()}を呼び出す。
+     *
+     * @param spec           接続対象
+     * @param cancelCallback キャンセルチェック
+     * @return 接続済みのLease
+     * @throws InterruptedException 接続中にキャンセルされた
+     * @throws PlayServiceException 接続に失敗した
+     */
+    @NonNull
+    public Lease acquire(@NonNull PlayServiceConnectionSpec spec, CancelCallback cancelCallback) throws InterruptedException, PlayServiceException {
+        final String key = spec.getKey();
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(key);
+            if (entry != null) {
+                if (entry.isUsable()) {
+                    mHitCount.incrementAndGet();
+                    return entry.newLease();
+                }
+                // 切断されているため、以後は新しい接続を使用する
+                mEntries.remove(key);
+                entry.detach();
+            }
+        }
+
+        mMissCount.incrementAndGet();
+        PlayServiceConnection connection = connect(spec, cancelCallback);
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(key);
+            if (entry != null && entry.isUsable()) {
+                // 並行して接続されたClientがあるため、そちらを利用する
+                connection.release();
+                return entry.newLease();
+            }
+
+            entry = new Entry(key, connection);
+            mEntries.put(key, entry);
+            return entry.newLease();
+        }
+    }
+
+    /**
+     * 接続を行い、接続にかかった時間を記録する
+     *
+     * 同じ設定への同時接続は{@link PlayServiceConnector}によって1回にまとめられる。
+     * リトライ方針が指定されている場合、リトライを含めた時間を記録する。
+     */
+    PlayServiceConnection connect(PlayServiceConnectionSpec spec, CancelCallback cancelCallback) throws InterruptedException, PlayServiceException {
+        final long startTime = SystemClock.elapsedRealtime();
+        final PlayServiceRetryPolicy retryPolicy = mRetryPolicy;
+        if (retryPolicy != null) {
+            try {
+                return retryPolicy.connect(spec, cancelCallback);
+            } finally {
+                mConnectCount.incrementAndGet();
+                mConnectTimeMs.addAndGet(SystemClock.elapsedRealtime() - startTime);
+            }
+        }
+
+        PlayServiceConnection connection = PlayServiceConnector.getInstance().connect(spec, cancelCallback);
+        mConnectCount.incrementAndGet();
+        mConnectTimeMs.addAndGet(SystemClock.elapsedRealtime() - startTime);
+
+        try {
+            connection.getClientIfSuccess();
+        } catch (PlayServiceException e) {
+            connection.release();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * 新規接続時のリトライ方針を指定する
+     *
+     * @param retryPolicy リトライ方針。nullの場合はリトライを行わない
+     */
+    public void setRetryPolicy(@Nullable PlayServiceRetryPolicy retryPolicy) {
+        mRetryPolicy = retryPolicy;
+    }
+
+    /**
+     * 未使用の接続を維持する時間を指定する
+     */
+    public void setIdleTimeout(long timeout, TimeUnit unit) {
+        mIdleTimeoutMs = unit.toMillis(timeout);
+    }
+
+    /**
+     * 未使用の接続を全て切断する
+     */
+    public void evictIdleConnections() {
+        synchronized (mEntries) {
+            for (Entry entry : mEntries.values().toArray(new Entry[mEntries.size()])) {
+                if (entry.mRefCount == 0) {
+                    mEntries.remove(entry.mKey);
+                    entry.detach();
+                }
+            }
+        }
+    }
+
+    /**
+     * 既存の接続を再利用できた回数
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * 新規の接続が必要となった回数
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * 接続を行った回数
+     */
+    public long getConnectCount() {
+        return mConnectCount.get();
+    }
+
+    /**
+     * 接続に要した合計時間(ms)
+     */
+    public long getTotalConnectTimeMs() {
+        return mConnectTimeMs.get();
+    }
+
+    /**
+     * 共有される接続
+     */
+    private class Entry implements GoogleApiClient.ConnectionCallbacks {
+        final String mKey;
+
+        final PlayServiceConnection mConnection;
+
+        /**
+         * 貸し出し中のLease数
+         * mEntriesのロック内でのみ操作する
+         */
+        int mRefCount;
+
+        /**
+         * Poolから外された場合true
+         * mEntriesのロック内でのみ操作する
+         */
+        boolean mDetached;
+
+        /**
+         * 最後に返却された時刻
+         */
+        long mReleasedTime;
+
+        volatile boolean mSuspended;
+
+        Entry(String key, PlayServiceConnection connection) {
+            mKey = key;
+            mConnection = connection;
+            connection.getClient().registerConnectionCallbacks(this);
+        }
+
+        boolean isUsable() {
+            return !mSuspended && mConnection.getClient().isConnected();
+        }
+
+        Lease newLease() {
+            ++mRefCount;
+            return new Lease(this);
+        }
+
+        void release() {
+            synchronized (mEntries) {
+                if (--mRefCount > 0) {
+                    return;
+                }
+
+                mReleasedTime = SystemClock.elapsedRealtime();
+                if (mDetached) {
+                    close();
+                } else {
+                    scheduleIdleCheck(mIdleTimeoutMs);
+                }
+            }
+        }
+
+        void scheduleIdleCheck(long delayMs) {
+            PlayServiceScheduler.schedule(() -> {
+                synchronized (mEntries) {
+                    if (mRefCount > 0 || mDetached) {
+                        return;
+                    }
+
+                    long idleTime = SystemClock.elapsedRealtime() - mReleasedTime;
+                    if (idleTime < mIdleTimeoutMs) {
+                        // 途中で再利用されたため、再度チェックする
+                        scheduleIdleCheck(mIdleTimeoutMs - idleTime);
+                        return;
+                    }
+
+                    mEntries.remove(mKey);
+                    detach();
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        void detach() {
+            mDetached = true;
+            if (mRefCount == 0) {
+                close();
+            }
+        }
+
+        void close() {
+            mConnection.getClient().unregisterConnectionCallbacks(this);
+            mConnection.release();
+        }
+
+        @Override
+        public void onConnected(@Nullable Bundle bundle) {
+            mSuspended = false;
+        }
+
+        @Override
+        public void onConnectionSuspended(int cause) {
+            // 次回のacquireで再接続させる
+            mSuspended = true;
+        }
+    }
+
+    /**
+     * Poolから貸し出された接続
+     *
+     * 接続はPoolによって管理されるため、{@link PlayServiceConnection#close()}を直接呼び出してはならない。
+     */
+    public static class Lease implements Closeable {
+        private Entry mEntry;
+
+        Lease(Entry entry) {
+            mEntry = entry;
+        }
+
+        public PlayServiceConnection getConnection() {
+            return mEntry.mConnection;
+        }
+
+        public GoogleApiClient getClient() {
+            return mEntry.mConnection.getClient();
+        }
+
+        /**
+         * 接続をPoolへ返却する
+         */
+        @Override
+        public synchronized void close() {
+            if (mEntry != null) {
+                mEntry.release();
+                mEntry = null;
+            }
+        }
+    }
+}
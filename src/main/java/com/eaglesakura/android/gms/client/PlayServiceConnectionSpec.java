@@ -0,0 +1,204 @@
+package com.eaglesakura.android.gms.client;
+
+import com.google.android.gms.auth.api.Auth;
+import com.google.android.gms.common.api.Api;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.Scope;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 接続対象のAPI/Scope/Accountの組み合わせ
+ *
+ * {@link GoogleApiClient.Builder}は設定内容を参照できないため、
+ * 同じ設定の接続を共有する場合はこのクラスを経由してBuilderを生成する。
+ */
+public class PlayServiceConnectionSpec {
+    private interface BuilderOperation {
+        void apply(GoogleApiClient.Builder builder);
+    }
+
+    /**
+     * ApiOptionsごとの識別番号
+     * equalsで等しいOptionsは同じ番号となる。番号は再利用しないため、異なるOptionsが同じキーとなることはない
+     * GCで番号が振り直されると同じ設定のキーが変わるため、Optionsは強参照で保持する
+     */
+    private static final Map<Object, Long> sOptionIds = new HashMap<>();
+
+    private static long sNextOptionId;
+
+    private final Context mContext;
+
+    private final List<BuilderOperation> mOperations = new ArrayList<>();
+
+    private final List<Api<?>> mApis = new ArrayList<>();
+
+    /**
+     * 設定内容を識別するためのキー要素
+     * 追加順に依存しないよう、ソートして保持する
+     */
+    private final TreeSet<String> mKeyElements = new TreeSet<>();
+
+    private String mKey;
+
+    /**
+     * ApiOptionsを含む場合true
+     */
+    private boolean mHasApiOptions;
+
+    private int mSignInMode = GoogleApiClient.SIGN_IN_MODE_REQUIRED;
+
+    private PlayServiceConnectScheduler.Priority mPriority = PlayServiceConnectScheduler.Priority.Default;
+
+    public PlayServiceConnectionSpec(@NonNull Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    public PlayServiceConnectionSpec addApi(@NonNull Api<? extends Api.ApiOptions.NotRequiredOptions> api) {
+        mOperations.add(builder -> builder.addApi(api));
+        mApis.add(api);
+        return addKeyElement("api:" + api.getName());
+    }
+
+    public <O extends Api.ApiOptions.HasOptions> PlayServiceConnectionSpec addApi(@NonNull Api<O> api, @NonNull O options) {
+        mOperations.add(builder -> builder.addApi(api, options));
+        mApis.add(api);
+        mHasApiOptions = true;
+        if (api == Auth.GOOGLE_SIGN_IN_API) {
+            // GOOGLE_SIGN_IN_APIはSIGN_IN_MODE_REQUIREDで接続できない
+            mSignInMode = GoogleApiClient.SIGN_IN_MODE_OPTIONAL;
+        }
+        return addKeyElement("api:" + api.getName() + "#" + getOptionId(options));
+    }
+
+    /**
+     * Optionsの識別番号を取得する
+     *
+     * hashCodeは衝突し得るため、キーにはequalsで比較して割り当てた番号を使用する。
+     * 番号はプロセス内でのみ有効であり、equalsを実装していないOptionsは同じインスタンスを使い回す必要がある。
+     */
+    private static long getOptionId(Object options) {
+        synchronized (sOptionIds) {
+            Long id = sOptionIds.get(options);
+            if (id == null) {
+                id = ++sNextOptionId;
+                sOptionIds.put(options, id);
+            }
+            return id;
+        }
+    }
+
+    public PlayServiceConnectionSpec addScope(@NonNull String scopeUri) {
+        mOperations.add(builder -> builder.addScope(new Scope(scopeUri)));
+        return addKeyElement("scope:" + scopeUri);
+    }
+
+    public PlayServiceConnectionSpec setAccountName(@NonNull String accountName) {
+        mOperations.add(builder -> builder.setAccountName(accountName));
+        return addKeyElement("account:" + accountName);
+    }
+
+    /**
+     * 接続の優先度を指定する
+     *
+     * 優先度は接続設定の識別には含まれない。
+     *
+     * @see PlayServiceConnectScheduler
+     */
+    public PlayServiceConnectionSpec setPriority(@NonNull PlayServiceConnectScheduler.Priority priority) {
+        mPriority = priority;
+        return this;
+    }
+
+    @NonNull
+    public PlayServiceConnectScheduler.Priority getPriority() {
+        return mPriority;
+    }
+
+    private PlayServiceConnectionSpec addKeyElement(String element) {
+        synchronized (mKeyElements) {
+            mKeyElements.add(element);
+            mKey = null;
+        }
+        return this;
+    }
+
+    /**
+     * 接続設定を識別するキーを取得する。
+     *
+     * 同じAPI/Scope/Accountの組み合わせであれば、追加順にかかわらず同じキーとなる。
+     */
+    @NonNull
+    public String getKey() {
+        synchronized (mKeyElements) {
+            if (mKey == null) {
+                StringBuilder builder = new StringBuilder();
+                for (String element : mKeyElements) {
+                    if (builder.length() > 0) {
+                        builder.append('|');
+                    }
+                    builder.append(element);
+                }
+                mKey = builder.toString();
+            }
+            return mKey;
+        }
+    }
+
+    /**
+     * 設定内容から推定される接続モードを取得する
+     *
+     * @see GoogleApiClient#SIGN_IN_MODE_REQUIRED
+     * @see GoogleApiClient#SIGN_IN_MODE_OPTIONAL
+     */
+    public int getSignInMode() {
+        return mSignInMode;
+    }
+
+    /**
+     * ApiOptionsを含む場合true
+     *
+     * Optionsの識別番号はプロセス内でのみ有効なため、キーをプロセス外へ保存してはならない。
+     */
+    boolean hasApiOptions() {
+        return mHasApiOptions;
+    }
+
+    @NonNull
+    Context getContext() {
+        return mContext;
+    }
+
+    /**
+     * 追加されたAPI一覧を取得する
+     */
+    @NonNull
+    public List<Api<?>> getApis() {
+        return Collections.unmodifiableList(mApis);
+    }
+
+    /**
+     * 設定を反映したBuilderを生成する
+     */
+    @NonNull
+    public GoogleApiClient.Builder newBuilder() {
+        GoogleApiClient.Builder builder = new GoogleApiClient.Builder(mContext);
+        for (BuilderOperation operation : mOperations) {
+            operation.apply(builder);
+        }
+        return builder;
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+}
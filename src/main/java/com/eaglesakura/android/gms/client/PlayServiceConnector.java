@@ -0,0 +1,271 @@
+package com.eaglesakura.android.gms.client;
+
+import com.google.android.gms.common.api.Api;
+import com.google.android.gms.common.api.GoogleApiClient;
+
+import com.eaglesakura.android.gms.error.PlayServiceTimeoutException;
+import com.eaglesakura.android.gms.metrics.PlayServiceMetrics;
+import com.eaglesakura.android.gms.util.Deadline;
+import com.eaglesakura.android.gms.util.ResultLatch;
+import com.eaglesakura.lambda.CancelCallback;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link PlayServiceConnectionSpec}を元に接続を行う
+ *
+ * 同じ設定に対して同時に接続が要求された場合、進行中の接続に合流させて1回の接続で済ませる。
+ * 合流した呼び出し元はそれぞれ同じ接続結果(Failed/Suspendedを含む)を受け取る。
+ *
+ * 恒久的な失敗は{@link PlayServiceOutcomeStore}に記録され、以後は接続を行わずに同じ失敗を返す。
+ *
+ * 接続の開始は{@link PlayServiceConnectScheduler}によって優先度順に制限される。
+ */
+public class PlayServiceConnector {
+    private static final PlayServiceConnector sInstance = new PlayServiceConnector();
+
+    /**
+     * 進行中の接続
+     */
+    private final Map<String, Flight> mFlights = new HashMap<>();
+
+    /**
+     * アプリ内で共有されるConnectorを取得する
+     */
+    public static PlayServiceConnector getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * APIに対して接続を行う。
+     *
+     * 同じ設定の接続が進行中であれば、その結果を待つ。
+     * 戻り値の接続は呼び出し元ごとに{@link PlayServiceConnection#close()}する必要があり、
+     * 全ての呼び出し元がcloseした時点で切断される。
+     *
+     * ある呼び出し元がキャンセルしても、他の呼び出し元が待っている限り接続は継続される。
+     *
+     * @param spec           接続対象のAPI
+     * @param cancelCallback キャンセルチェック
+     * @return 接続結果
+     * @throws InterruptedException 接続中にキャンセルされた
+     */
+    @NonNull
+    public PlayServiceConnection connect(@NonNull PlayServiceConnectionSpec spec, CancelCallback cancelCallback) throws InterruptedException {
+        try {
+            return connect(spec, Deadline.NONE, cancelCallback);
+        } catch (PlayServiceTimeoutException e) {
+            // 期限が無いため、ここには到達しない
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 期限付きで接続を行う
+     *
+     * 期限は待機する呼び出し元ごとに判定され、期限を過ぎた呼び出し元のみが待機から外れる。
+     *
+     * @throws PlayServiceTimeoutException 期限までに接続が完了しなかった
+     */
+    @NonNull
+    public PlayServiceConnection connect(@NonNull PlayServiceConnectionSpec spec, @NonNull Deadline deadline, CancelCallback cancelCallback) throws InterruptedException, PlayServiceTimeoutException {
+        deadline.assertNotExpired();
+        final PlayServiceOutcomeStore outcomeStore = PlayServiceOutcomeStore.getInstance(spec.getContext());
+        final PlayServiceConnection knownFailure = outcomeStore.getKnownFailure(spec);
+        if (knownFailure != null) {
+            // 接続しても同じ結果となるため、接続を省略する
+            return knownFailure;
+        }
+
+        final long startTime = PlayServiceMetrics.startTime();
+        final String key = spec.getKey();
+        final ResultLatch<PlayServiceConnection> latch = new ResultLatch<>();
+        final Flight flight;
+        final boolean start;
+        synchronized (mFlights) {
+            Flight current = mFlights.get(key);
+            start = (current == null);
+            flight = (start ? new Flight(spec, outcomeStore) : current);
+            flight.mWaiters.add(latch);
+            if (start) {
+                mFlights.put(key, flight);
+            }
+        }
+
+        if (start) {
+            flight.mTicket = PlayServiceConnectScheduler.getInstance().submit(spec.getPriority(), ticket -> flight.start(ticket, spec));
+        } else {
+            // 待機中の接続に優先度の高い呼び出し元が合流した
+            flight.promote(spec.getPriority());
+        }
+
+        try {
+            return latch.await(cancelCallback, deadline);
+        } catch (InterruptedException | PlayServiceTimeoutException e) {
+            if (latch.getAbortReason() instanceof RuntimeException) {
+                // 接続を開始できなかった
+                throw (RuntimeException) latch.getAbortReason();
+            }
+            flight.leave(latch);
+            if (startTime != 0) {
+                PlayServiceMetrics.getInstance().onConnectCanceled(key, System.nanoTime() - startTime);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 接続を開始する
+     */
+    GoogleApiClient startConnect(PlayServiceConnectionSpec spec, PlayServiceConnection.ConnectListener listener) {
+        return PlayServiceConnection.newInstanceAsync(spec, listener);
+    }
+
+    /**
+     * 進行中の接続と、その結果を待っている呼び出し元
+     */
+    private class Flight {
+        final String mKey;
+
+        /**
+         * 結果を待っている呼び出し元
+         * mFlightsのロック内でのみ操作する
+         */
+        final List<ResultLatch<PlayServiceConnection>> mWaiters = new ArrayList<>();
+
+        final PlayServiceOutcomeStore mOutcomeStore;
+
+        volatile GoogleApiClient mClient;
+
+        /**
+         * 接続の枠
+         */
+        volatile PlayServiceConnectScheduler.Ticket mTicket;
+
+        /**
+         * 接続設定
+         */
+        final PlayServiceConnectionSpec mSpec;
+
+        /**
+         * 接続対象のAPI
+         */
+        final List<Api<?>> mApis;
+
+        Flight(PlayServiceConnectionSpec spec, PlayServiceOutcomeStore outcomeStore) {
+            mKey = spec.getKey();
+            mSpec = spec;
+            mApis = spec.getApis();
+            mOutcomeStore = outcomeStore;
+        }
+
+        /**
+         * 接続を開始する
+         */
+        void start(PlayServiceConnectScheduler.Ticket ticket, PlayServiceConnectionSpec spec) {
+            mTicket = ticket;
+            synchronized (mFlights) {
+                if (mFlights.get(mKey) != this) {
+                    // 待機中に全ての呼び出し元がキャンセルした
+                    ticket.release();
+                    return;
+                }
+            }
+
+            try {
+                mClient = startConnect(spec, this::complete);
+            } catch (RuntimeException e) {
+                abort(e);
+            }
+        }
+
+        void promote(PlayServiceConnectScheduler.Priority priority) {
+            PlayServiceConnectScheduler.Ticket ticket = mTicket;
+            if (ticket != null) {
+                ticket.promote(priority);
+            }
+        }
+
+        void releaseTicket() {
+            PlayServiceConnectScheduler.Ticket ticket = mTicket;
+            if (ticket != null) {
+                ticket.release();
+            }
+        }
+
+        /**
+         * 接続結果を全ての呼び出し元へ配布する
+         */
+        void complete(PlayServiceConnection connection) {
+            releaseTicket();
+            mOutcomeStore.onConnectionResult(mSpec, connection);
+            if (connection.isConnected()) {
+                // 合流した呼び出し元が個別に問い合わせないよう、配布前に取得しておく
+                connection.captureConnectionResults(mApis);
+            }
+
+            List<ResultLatch<PlayServiceConnection>> waiters = detach();
+            if (waiters.isEmpty()) {
+                // 全員がキャンセルしたため、誰も使用しない
+                connection.release();
+                return;
+            }
+
+            // 配布前に参照を確保しておき、受け取らなかった分は返却する
+            connection.retain(waiters.size() - 1);
+            for (ResultLatch<PlayServiceConnection> waiter : waiters) {
+                if (!waiter.set(connection)) {
+                    connection.release();
+                }
+            }
+        }
+
+        /**
+         * 接続を開始できなかったことを全ての呼び出し元へ通知する
+         */
+        void abort(Throwable error) {
+            releaseTicket();
+            for (ResultLatch<PlayServiceConnection> waiter : detach()) {
+                waiter.abort(error);
+            }
+        }
+
+        /**
+         * 呼び出し元がキャンセルされた
+         *
+         * 誰も結果を待たなくなった場合、接続を中断する。
+         */
+        void leave(ResultLatch<PlayServiceConnection> waiter) {
+            synchronized (mFlights) {
+                mWaiters.remove(waiter);
+                if (!mWaiters.isEmpty() || mFlights.get(mKey) != this) {
+                    return;
+                }
+                mFlights.remove(mKey);
+            }
+
+            // 待機中であればキューから破棄される
+            releaseTicket();
+            GoogleApiClient client = mClient;
+            if (client != null) {
+                client.disconnect();
+            }
+        }
+
+        List<ResultLatch<PlayServiceConnection>> detach() {
+            synchronized (mFlights) {
+                if (mFlights.get(mKey) == this) {
+                    mFlights.remove(mKey);
+                }
+                List<ResultLatch<PlayServiceConnection>> result = new ArrayList<>(mWaiters);
+                mWaiters.clear();
+                return result;
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.eaglesakura.android.gms.client;
+
+import com.google.android.gms.common.ConnectionResult;
+
+import com.eaglesakura.android.gms.util.PlayServiceAvailabilityMonitor;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 接続設定ごとの恒久的な接続失敗を永続化する
+ *
+ * 再接続しても結果が変わらない失敗(Play Serviceの更新が必要、開発者の設定ミス等)を記録し、
+ * 次回以降の起動時にGoogleApiClientの接続を行わずに同じ失敗を返す。
+ *
+ * 記録はPlay ServiceのversionCodeと組にして保存され、Play Serviceが更新された時点で無効となる。
+ * アプリのversionCodeはキーに含まれ、アプリが更新された時点で以前の記録は破棄される。
+ * ApiOptionsを含む設定のキーはプロセス内でのみ有効なため、記録しない。
+ */
+public class PlayServiceOutcomeStore {
+    /**
+     * 記録を有効とするデフォルト時間(ms)
+     */
+    public static final long DEFAULT_MAX_AGE_MS = 1000 * 60 * 60 * 24;
+
+    private static final String PREF_NAME = "com.eaglesakura.android.gms.PlayServiceOutcomeStore";
+
+    private static PlayServiceOutcomeStore sInstance;
+
+    private final SharedPreferences mPreferences;
+
+    private final PlayServiceAvailabilityMonitor mAvailabilityMonitor;
+
+    private volatile long mMaxAgeMs = DEFAULT_MAX_AGE_MS;
+
+    /**
+     * 保存時のキーの接頭辞。アプリのversionCodeを含む
+     */
+    private final String mKeyPrefix;
+
+    private final AtomicLong mShortCircuitCount = new AtomicLong();
+
+    PlayServiceOutcomeStore(@NonNull Context context) {
+        context = context.getApplicationContext();
+        mPreferences = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        mAvailabilityMonitor = PlayServiceAvailabilityMonitor.getInstance(context);
+        mKeyPrefix = "app" + getAppVersionCode(context) + "|";
+        removeOtherVersions();
+        // 有効/無効の切り替え等、versionCodeが変わらない変化に対応する
+        mAvailabilityMonitor.addListener(errorCode -> clear());
+    }
+
+    private static int getAppVersionCode(Context context) {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 以前のバージョンのアプリで保存された記録を破棄する
+     */
+    private void removeOtherVersions() {
+        SharedPreferences.Editor editor = null;
+        for (String key : mPreferences.getAll().keySet()) {
+            if (!key.startsWith(mKeyPrefix)) {
+                if (editor == null) {
+                    editor = mPreferences.edit();
+                }
+                editor.remove(key);
+            }
+        }
+        if (editor != null) {
+            editor.apply();
+        }
+    }
+
+    /**
+     * アプリ内で共有されるStoreを取得する
+     */
+    @NonNull
+    public static synchronized PlayServiceOutcomeStore getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new PlayServiceOutcomeStore(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * 永続化の対象となるエラーコードであればtrue
+     */
+    public static boolean isPersistentError(int errorCode) {
+        switch (errorCode) {
+            case ConnectionResult.SERVICE_MISSING:
+            case ConnectionResult.SERVICE_VERSION_UPDATE_REQUIRED:
+            case ConnectionResult.SERVICE_DISABLED:
+            case ConnectionResult.SERVICE_INVALID:
+            case ConnectionResult.DEVELOPER_ERROR:
+            case ConnectionResult.API_UNAVAILABLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Play Service自体の状態を示すエラーコードであればtrue
+     */
+    static boolean isAvailabilityError(int errorCode) {
+        switch (errorCode) {
+            case ConnectionResult.SERVICE_MISSING:
+            case ConnectionResult.SERVICE_VERSION_UPDATE_REQUIRED:
+            case ConnectionResult.SERVICE_DISABLED:
+            case ConnectionResult.SERVICE_INVALID:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 記録を有効とする時間を指定する
+     */
+    public void setMaxAge(long time, TimeUnit unit) {
+        mMaxAgeMs = unit.toMillis(time);
+    }
+
+    /**
+     * 記録されている失敗を取得する
+     *
+     * 戻り値はClientを持たない{@link PlayServiceConnection.Status#Failed}の接続となる。
+     * ConnectionResultはエラーコードのみを持ち、Resolutionは含まれない。
+     * 記録は現在のPlay Serviceの状態と矛盾しない場合のみ有効となる。
+     *
+     * @return 記録が無いか無効となっている場合はnull
+     */
+    @Nullable
+    public PlayServiceConnection getKnownFailure(@NonNull PlayServiceConnectionSpec spec) {
+        final String key = toStoreKey(spec);
+        if (key == null) {
+            return null;
+        }
+        final String value = mPreferences.getString(key, null);
+        if (value == null) {
+            return null;
+        }
+
+        // versionCode:errorCode:保存時刻
+        final String[] values = value.split(":");
+        try {
+            final int versionCode = Integer.parseInt(values[0]);
+            final int errorCode = Integer.parseInt(values[1]);
+            final long savedTime = Long.parseLong(values[2]);
+            final long age = System.currentTimeMillis() - savedTime;
+            if (versionCode == mAvailabilityMonitor.getVersionCode() && age >= 0 && age < mMaxAgeMs
+                    && isConsistent(errorCode, mAvailabilityMonitor.getErrorCode())) {
+                mShortCircuitCount.incrementAndGet();
+                return new PlayServiceConnection(new ConnectionResult(errorCode));
+            }
+        } catch (RuntimeException e) {
+            // 不正な値は破棄する
+        }
+
+        mPreferences.edit().remove(key).apply();
+        return null;
+    }
+
+    /**
+     * 記録されたエラーコードが現在のPlay Serviceの状態と矛盾しなければtrue
+     *
+     * アプリの停止中にPlay Serviceが有効化・インストールされた場合、versionCodeが変わらなくても記録を無効とする。
+     */
+    static boolean isConsistent(int savedErrorCode, int availabilityErrorCode) {
+        if (isAvailabilityError(savedErrorCode)) {
+            return savedErrorCode == availabilityErrorCode;
+        } else {
+            return availabilityErrorCode == ConnectionResult.SUCCESS;
+        }
+    }
+
+    /**
+     * 保存に使用するキーを取得する
+     *
+     * @return 保存できない設定の場合null
+     */
+    @Nullable
+    private String toStoreKey(PlayServiceConnectionSpec spec) {
+        if (spec.hasApiOptions()) {
+            return null;
+        }
+        return mKeyPrefix + spec.getKey();
+    }
+
+    /**
+     * 接続結果を記録する
+     *
+     * 永続化の対象となる失敗であれば保存し、接続に成功した場合は記録を破棄する。
+     */
+    void onConnectionResult(@NonNull PlayServiceConnectionSpec spec, @NonNull PlayServiceConnection connection) {
+        final String key = toStoreKey(spec);
+        if (key == null) {
+            return;
+        }
+
+        if (connection.isConnected()) {
+            if (mPreferences.getString(key, null) != null) {
+                mPreferences.edit().remove(key).apply();
+            }
+        } else if (connection.getStatus() == PlayServiceConnection.Status.Failed && isPersistentError(connection.getErrorCode())) {
+            final String value = mAvailabilityMonitor.getVersionCode() + ":" + connection.getErrorCode() + ":" + System.currentTimeMillis();
+            mPreferences.edit().putString(key, value).apply();
+        }
+    }
+
+    /**
+     * 全ての記録を破棄する
+     */
+    public void clear() {
+        mPreferences.edit().clear().apply();
+    }
+
+    /**
+     * 記録によって接続を省略した回数
+     */
+    public long getShortCircuitCount() {
+        return mShortCircuitCount.get();
+    }
+}
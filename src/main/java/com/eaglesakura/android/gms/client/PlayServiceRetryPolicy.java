@@ -0,0 +1,330 @@
+package com.eaglesakura.android.gms.client;
+
+import com.google.android.gms.common.ConnectionResult;
+
+import com.eaglesakura.android.gms.error.CircuitBreakerOpenException;
+import com.eaglesakura.android.gms.error.PlayServiceConnectException;
+import com.eaglesakura.android.gms.error.PlayServiceException;
+import com.eaglesakura.android.gms.error.RequireRetryConnectException;
+import com.eaglesakura.android.gms.util.CancelToken;
+import com.eaglesakura.android.gms.util.ResultLatch;
+import com.eaglesakura.lambda.CallbackUtils;
+import com.eaglesakura.lambda.CancelCallback;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 接続失敗時のリトライ方針
+ *
+ * 一時的な失敗のみを指数バックオフ + ジッターでリトライし、
+ * 同じ設定への接続失敗が続いた場合は一定時間接続自体を停止する(サーキットブレーカー)。
+ */
+public class PlayServiceRetryPolicy {
+    /**
+     * 接続失敗の種類
+     */
+    public enum ErrorType {
+        /**
+         * 時間を置けば回復する可能性がある
+         */
+        Transient,
+
+        /**
+         * ユーザーによる解決(サインイン、更新等)が必要
+         */
+        RequireResolution,
+
+        /**
+         * リトライしても回復しない
+         */
+        Permanent,
+
+        /**
+         * アプリ側から接続が中断された
+         * 失敗ではないため、リトライもサーキットブレーカーへの記録も行わない
+         */
+        Canceled,
+    }
+
+    public static final int DEFAULT_MAX_RETRY = 3;
+
+    public static final long DEFAULT_INITIAL_BACKOFF_MS = 500;
+
+    public static final long DEFAULT_MAX_BACKOFF_MS = 1000 * 30;
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    public static final long DEFAULT_OPEN_TIME_MS = 1000 * 60;
+
+    private static final Random sRandom = new Random();
+
+    private volatile int mMaxRetry = DEFAULT_MAX_RETRY;
+
+    private volatile long mInitialBackoffMs = DEFAULT_INITIAL_BACKOFF_MS;
+
+    private volatile long mMaxBackoffMs = DEFAULT_MAX_BACKOFF_MS;
+
+    private volatile int mFailureThreshold = DEFAULT_FAILURE_THRESHOLD;
+
+    private volatile long mOpenTimeMs = DEFAULT_OPEN_TIME_MS;
+
+    private final ConcurrentMap<String, CircuitBreaker> mBreakers = new ConcurrentHashMap<>();
+
+    /**
+     * ConnectionResultのエラーコードを分類する
+     */
+    @NonNull
+    public static ErrorType getErrorType(int errorCode) {
+        switch (errorCode) {
+            case ConnectionResult.NETWORK_ERROR:
+            case ConnectionResult.INTERNAL_ERROR:
+            case ConnectionResult.TIMEOUT:
+            case ConnectionResult.INTERRUPTED:
+            case ConnectionResult.SERVICE_UPDATING:
+                return ErrorType.Transient;
+            case ConnectionResult.SERVICE_MISSING:
+            case ConnectionResult.SERVICE_VERSION_UPDATE_REQUIRED:
+            case ConnectionResult.SERVICE_DISABLED:
+            case ConnectionResult.SERVICE_INVALID:
+            case ConnectionResult.SIGN_IN_REQUIRED:
+            case ConnectionResult.SIGN_IN_FAILED:
+            case ConnectionResult.INVALID_ACCOUNT:
+            case ConnectionResult.RESOLUTION_REQUIRED:
+                return ErrorType.RequireResolution;
+            case ConnectionResult.CANCELED:
+                // disconnect()による中断
+                return ErrorType.Canceled;
+            default:
+                // DEVELOPER_ERROR, API_UNAVAILABLE等
+                return ErrorType.Permanent;
+        }
+    }
+
+    /**
+     * 接続時の例外を分類する
+     *
+     * Suspendedによるリトライ要求は一時的な失敗として扱う。
+     */
+    @NonNull
+    public static ErrorType getErrorType(@NonNull PlayServiceException error) {
+        if (error instanceof RequireRetryConnectException) {
+            return ErrorType.Transient;
+        } else if (error instanceof PlayServiceConnectException) {
+            return getErrorType(((PlayServiceConnectException) error).getErrorCode());
+        } else {
+            return ErrorType.Permanent;
+        }
+    }
+
+    /**
+     * 初回の接続を除いたリトライ回数の上限を指定する
+     */
+    public PlayServiceRetryPolicy setMaxRetry(int maxRetry) {
+        mMaxRetry = Math.max(maxRetry, 0);
+        return this;
+    }
+
+    /**
+     * バックオフ時間を指定する。
+     *
+     * リトライごとに2倍となり、maxを超えない。実際の待機時間はその半分から全体の間でランダムに決まる。
+     */
+    public PlayServiceRetryPolicy setBackoff(long initial, long max, TimeUnit unit) {
+        mInitialBackoffMs = Math.max(unit.toMillis(initial), 1);
+        mMaxBackoffMs = Math.max(unit.toMillis(max), mInitialBackoffMs);
+        return this;
+    }
+
+    /**
+     * サーキットブレーカーの閾値を指定する
+     *
+     * @param failureThreshold 連続して失敗した場合に接続を停止する回数
+     * @param openTime         接続を停止する時間
+     */
+    public PlayServiceRetryPolicy setCircuitBreaker(int failureThreshold, long openTime, TimeUnit unit) {
+        mFailureThreshold = Math.max(failureThreshold, 1);
+        mOpenTimeMs = unit.toMillis(openTime);
+        return this;
+    }
+
+    /**
+     * n回目のリトライ前に待機する時間を取得する
+     *
+     * @param retry 1から始まるリトライ回数
+     */
+    long getBackoffMs(int retry) {
+        long backoff = mInitialBackoffMs;
+        for (int i = 1; i < retry && backoff < mMaxBackoffMs; ++i) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, mMaxBackoffMs);
+
+        // 同時に失敗したクライアントが一斉に再接続しないよう、待機時間を分散させる
+        final long half = backoff / 2;
+        synchronized (sRandom) {
+            return half + (long) (sRandom.nextDouble() * (backoff - half));
+        }
+    }
+
+    /**
+     * 方針に従って接続を行う
+     *
+     * 一時的な失敗はリトライされ、それ以外の失敗は即座に例外となる。
+     * リトライ中の失敗で接続が停止された場合は、その失敗の例外が投げられる。
+     * 戻り値は必ず接続済みであり、使用後はcloseする。
+     *
+     * @param spec           接続対象
+     * @param cancelCallback キャンセルチェック。バックオフ中もチェックされる
+     * @throws InterruptedException        キャンセルされた
+     * @throws CircuitBreakerOpenException 接続が停止されている
+     * @throws PlayServiceException        接続に失敗した
+     */
+    @NonNull
+    public PlayServiceConnection connect(@NonNull PlayServiceConnectionSpec spec, CancelCallback cancelCallback) throws InterruptedException, PlayServiceException {
+        final CircuitBreaker breaker = getCircuitBreaker(spec.getKey());
+        int retry = 0;
+        while (true) {
+            breaker.assertClosed(SystemClock.elapsedRealtime());
+
+            final PlayServiceConnection connection;
+            try {
+                connection = PlayServiceConnector.getInstance().connect(spec, cancelCallback);
+            } catch (InterruptedException | RuntimeException e) {
+                breaker.onCanceled();
+                throw e;
+            }
+
+            try {
+                connection.getClientIfSuccess();
+                breaker.onSuccess();
+                return connection;
+            } catch (PlayServiceException e) {
+                connection.release();
+
+                final ErrorType type = getErrorType(e);
+                if (type == ErrorType.RequireResolution || type == ErrorType.Canceled) {
+                    // ユーザー操作待ちや中断は設定の問題ではないため、ブレーカーには数えない
+                    breaker.onCanceled();
+                    throw e;
+                }
+
+                final boolean opened = breaker.onFailure(type == ErrorType.Permanent, SystemClock.elapsedRealtime());
+                if (opened || type != ErrorType.Transient || retry >= mMaxRetry) {
+                    // 停止された場合は待機せず、その原因となった失敗を通知する
+                    throw e;
+                }
+            }
+
+            ++retry;
+            sleep(getBackoffMs(retry), cancelCallback);
+        }
+    }
+
+    /**
+     * 接続の停止状態を解除する
+     */
+    public void resetCircuitBreaker(@NonNull PlayServiceConnectionSpec spec) {
+        mBreakers.remove(spec.getKey());
+    }
+
+    CircuitBreaker getCircuitBreaker(String key) {
+        CircuitBreaker breaker = mBreakers.get(key);
+        if (breaker == null) {
+            breaker = new CircuitBreaker();
+            CircuitBreaker old = mBreakers.putIfAbsent(key, breaker);
+            if (old != null) {
+                breaker = old;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * キャンセルチェックを行いながら待機する
+     */
+    static void sleep(long delayMs, CancelCallback cancelCallback) throws InterruptedException {
+        final long endTime = SystemClock.elapsedRealtime() + delayMs;
+        final ResultLatch<Void> sleeper = new ResultLatch<>();
+        // CancelTokenであればキャンセルされた時点で待機を終える
+        final CancelToken.Registration registration =
+                (cancelCallback instanceof CancelToken) ? ((CancelToken) cancelCallback).register(() -> sleeper.abort()) : null;
+        try {
+            long remain;
+            while ((remain = endTime - SystemClock.elapsedRealtime()) > 0) {
+                if (CallbackUtils.isCanceled(cancelCallback)) {
+                    throw new InterruptedException();
+                }
+                // ForkJoinPool上でも補償スレッドを起動させるため、Latch経由で待機する
+                sleeper.awaitDone(Math.min(remain, ResultLatch.getDefaultCancelCheckInterval()), TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            if (registration != null) {
+                registration.unregister();
+            }
+        }
+    }
+
+    /**
+     * 設定ごとの連続失敗を記録する
+     *
+     * 停止時間の経過後は1回だけ試行を許可し、成功すれば停止を解除する。
+     */
+    class CircuitBreaker {
+        int mFailureCount;
+
+        long mOpenUntil;
+
+        boolean mTrial;
+
+        /**
+         * @param now {@link SystemClock#elapsedRealtime()}
+         */
+        synchronized void assertClosed(long now) throws CircuitBreakerOpenException {
+            if (mOpenUntil == 0) {
+                return;
+            }
+
+            if (now < mOpenUntil) {
+                throw new CircuitBreakerOpenException("Circuit open", mOpenUntil - now);
+            }
+            if (mTrial) {
+                // 他のスレッドが試行中
+                throw new CircuitBreakerOpenException("Circuit half-open", mInitialBackoffMs);
+            }
+            mTrial = true;
+        }
+
+        synchronized void onSuccess() {
+            mFailureCount = 0;
+            mOpenUntil = 0;
+            mTrial = false;
+        }
+
+        /**
+         * 結果を判定せずに試行を終了した
+         */
+        synchronized void onCanceled() {
+            mTrial = false;
+        }
+
+        /**
+         * @param now {@link SystemClock#elapsedRealtime()}
+         * @return この失敗によって接続が停止された場合true
+         */
+        synchronized boolean onFailure(boolean permanent, long now) {
+            ++mFailureCount;
+            final boolean open = (permanent || mTrial || mFailureCount >= mFailureThreshold);
+            if (open) {
+                mOpenUntil = now + mOpenTimeMs;
+            }
+            mTrial = false;
+            return open;
+        }
+    }
+}
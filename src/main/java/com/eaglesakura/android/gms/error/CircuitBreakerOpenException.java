@@ -0,0 +1,39 @@
+package com.eaglesakura.android.gms.error;
+
+/**
+ * 接続の失敗が続いたため、一定時間接続を停止している
+ */
+public class CircuitBreakerOpenException extends PlayServiceException {
+    final long mRetryAfterMs;
+
+    public CircuitBreakerOpenException(long retryAfterMs) {
+        mRetryAfterMs = retryAfterMs;
+    }
+
+    public CircuitBreakerOpenException(String message, long retryAfterMs) {
+        super(message);
+        mRetryAfterMs = retryAfterMs;
+    }
+
+    public CircuitBreakerOpenException(String message, Throwable cause, long retryAfterMs) {
+        super(message, cause);
+        mRetryAfterMs = retryAfterMs;
+    }
+
+    public CircuitBreakerOpenException(Throwable cause, long retryAfterMs) {
+        super(cause);
+        mRetryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * 接続が再開されるまでの時間(ms)
+     */
+    public long getRetryAfterMs() {
+        return mRetryAfterMs;
+    }
+
+    @Override
+    protected boolean isControlFlow() {
+        return true;
+    }
+}
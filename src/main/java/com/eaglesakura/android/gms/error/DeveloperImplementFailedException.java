@@ -21,4 +21,12 @@ public class DeveloperImplementFailedException extends PlayServiceConnectExcepti
     public DeveloperImplementFailedException(Throwable cause, ConnectionResult connectionResult) {
         super(cause, connectionResult);
     }
+
+    /**
+     * 実装エラーは調査のためにスタックトレースを保持する
+     */
+    @Override
+    protected boolean isControlFlow() {
+        return false;
+    }
 }
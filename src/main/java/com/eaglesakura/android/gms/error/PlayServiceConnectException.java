@@ -60,4 +60,8 @@ public class PlayServiceConnectException extends PlayServiceException {
         return mConnectionResult.getErrorMessage();
     }
 
+    @Override
+    protected boolean isControlFlow() {
+        return true;
+    }
 }
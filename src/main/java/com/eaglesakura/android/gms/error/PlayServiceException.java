@@ -1,19 +1,67 @@
 package com.eaglesakura.android.gms.error;
 
+import com.eaglesakura.android.gms.metrics.PlayServiceMetrics;
+
 public class PlayServiceException extends Exception {
 
+    /**
+     * 想定された失敗の例外でスタックトレースを取得しない場合true
+     */
+    private static volatile boolean sStacklessControlFlow;
+
     public PlayServiceException() {
+        onCreated();
     }
 
     public PlayServiceException(String message) {
         super(message);
+        onCreated();
     }
 
     public PlayServiceException(String message, Throwable cause) {
         super(message, cause);
+        onCreated();
     }
 
     public PlayServiceException(Throwable cause) {
         super(cause);
+        onCreated();
+    }
+
+    /**
+     * 生成を記録する
+     *
+     * 構築中のインスタンスを外部へ渡さないよう、型のみを通知する。
+     */
+    private void onCreated() {
+        if (PlayServiceMetrics.isEnabled()) {
+            PlayServiceMetrics.getInstance().onException(getClass(), isControlFlow());
+        }
+    }
+
+    /**
+     * 想定された失敗(接続の中断、サインイン要求、タイムアウト等)の例外でスタックトレースの取得を省略する
+     *
+     * 失敗が頻繁に発生する場合の生成コストを削減する。デバッグ時はfalseのままとする。
+     */
+    public static void setStacklessControlFlow(boolean stackless) {
+        sStacklessControlFlow = stackless;
+    }
+
+    /**
+     * 呼び出し元が通常の処理として扱う失敗である場合true
+     *
+     * コンストラクタから呼び出されるため、オーバーライドは定数のみを返すこと。
+     */
+    protected boolean isControlFlow() {
+        return false;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        if (sStacklessControlFlow && isControlFlow()) {
+            return this;
+        }
+        return super.fillInStackTrace();
     }
 }
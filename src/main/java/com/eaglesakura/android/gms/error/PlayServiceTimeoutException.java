@@ -0,0 +1,26 @@
+package com.eaglesakura.android.gms.error;
+
+/**
+ * 指定された期限までに処理が完了しなかった
+ */
+public class PlayServiceTimeoutException extends PlayServiceException {
+    public PlayServiceTimeoutException() {
+    }
+
+    public PlayServiceTimeoutException(String message) {
+        super(message);
+    }
+
+    public PlayServiceTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public PlayServiceTimeoutException(Throwable cause) {
+        super(cause);
+    }
+
+    @Override
+    protected boolean isControlFlow() {
+        return true;
+    }
+}
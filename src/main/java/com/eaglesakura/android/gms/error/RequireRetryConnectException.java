@@ -28,4 +28,9 @@ public class RequireRetryConnectException extends PlayServiceException {
     public int getPlayServiceCause() {
         return mPlayServiceCause;
     }
+
+    @Override
+    protected boolean isControlFlow() {
+        return true;
+    }
 }
@@ -33,4 +33,9 @@ public class SignInRequireException extends PlayServiceException {
     public Intent getSignInIntent() {
         return mSignInIntent;
     }
+
+    @Override
+    protected boolean isControlFlow() {
+        return true;
+    }
 }
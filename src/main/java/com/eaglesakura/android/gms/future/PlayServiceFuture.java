@@ -0,0 +1,363 @@
+package com.eaglesakura.android.gms.future;
+
+import com.eaglesakura.android.gms.error.PlayServiceException;
+import com.eaglesakura.android.gms.error.PlayServiceTimeoutException;
+import com.eaglesakura.android.gms.util.CancelToken;
+import com.eaglesakura.android.gms.util.Deadline;
+import com.eaglesakura.android.gms.util.PlayServiceTimer;
+import com.eaglesakura.android.gms.util.ResultLatch;
+import com.eaglesakura.lambda.CallbackUtils;
+import com.eaglesakura.lambda.CancelCallback;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * PlayServiceの非同期処理結果を表すFuture
+ *
+ * 完了はPlayServiceのコールバックから通知されるため、完了待ちのためにスレッドを占有しない。
+ * 失敗は常に{@link PlayServiceException}として扱われ、キャンセルは元のPendingResult等へ伝搬される。
+ */
+public class PlayServiceFuture<T> implements Future<T> {
+
+    /**
+     * 完了通知を受け取る
+     */
+    public interface Listener<T> {
+        void onComplete(PlayServiceFuture<T> future);
+    }
+
+    /**
+     * 結果を変換する
+     */
+    public interface Function<T, R> {
+        R apply(T value) throws Throwable;
+    }
+
+    /**
+     * 結果を元に次の非同期処理を開始する
+     */
+    public interface AsyncFunction<T, R> {
+        PlayServiceFuture<R> apply(T value) throws Throwable;
+    }
+
+    private final ResultLatch<T> mLatch = new ResultLatch<>();
+
+    /**
+     * 完了前に登録されたListener
+     * 完了後はnullとなる
+     */
+    private List<Runnable> mListeners = new ArrayList<>();
+
+    /**
+     * キャンセル時に元の処理を中断させるためのフック
+     */
+    private List<Runnable> mCancelHooks = new ArrayList<>();
+
+    /**
+     * 結果をセットして完了させる
+     *
+     * @return 完了させることができた場合true
+     */
+    public boolean complete(T value) {
+        if (!mLatch.set(value)) {
+            return false;
+        }
+        onDone(false);
+        return true;
+    }
+
+    /**
+     * 失敗として完了させる
+     *
+     * @param error 失敗理由。PlayServiceException以外はPlayServiceExceptionでラップされる
+     * @return 完了させることができた場合true
+     */
+    public boolean fail(@NonNull Throwable error) {
+        if (!mLatch.abort(toPlayServiceException(error))) {
+            return false;
+        }
+        onDone(false);
+        return true;
+    }
+
+    /**
+     * 処理をキャンセルする。
+     *
+     * 元のPendingResult等にもキャンセルが伝搬される。
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!mLatch.abort(new CancellationException())) {
+            return false;
+        }
+        onDone(true);
+        return true;
+    }
+
+    /**
+     * 指定時間内に完了しなかった場合、元の処理をキャンセルしたうえで失敗させる
+     */
+    public PlayServiceFuture<T> withTimeout(long timeout, TimeUnit unit) {
+        if (isDone()) {
+            return this;
+        }
+
+        return withDeadline(Deadline.after(timeout, unit));
+    }
+
+    /**
+     * 期限までに完了しなかった場合、元の処理をキャンセルしたうえで{@link PlayServiceTimeoutException}で失敗させる
+     *
+     * 期限は{@link PlayServiceTimer}で管理されるため、Futureごとにスレッドやタスクを占有しない。
+     */
+    public PlayServiceFuture<T> withDeadline(@NonNull Deadline deadline) {
+        if (isDone() || deadline.isInfinite()) {
+            return this;
+        }
+
+        final PlayServiceTimer.Timeout timer = PlayServiceTimer.schedule(() -> {
+            if (mLatch.abort(new PlayServiceTimeoutException("Timeout", new TimeoutException()))) {
+                onDone(true);
+            }
+        }, deadline);
+        addListener(future -> timer.cancel());
+        return this;
+    }
+
+    /**
+     * キャンセル時に元の処理を中断させるためのフックを登録する。
+     *
+     * 既にキャンセル済みである場合は即座に実行される。
+     */
+    public PlayServiceFuture<T> addCancelHook(@NonNull Runnable hook) {
+        synchronized (this) {
+            if (mCancelHooks != null) {
+                mCancelHooks.add(hook);
+                return this;
+            }
+        }
+
+        if (isCancelled() || isTimeout()) {
+            hook.run();
+        }
+        return this;
+    }
+
+    /**
+     * 完了通知を登録する。
+     *
+     * Listenerは完了させたスレッド上で実行される。既に完了している場合は即座に実行される。
+     */
+    public PlayServiceFuture<T> addListener(@NonNull Listener<T> listener) {
+        return addListener(null, listener);
+    }
+
+    /**
+     * 完了通知を登録する。
+     *
+     * @param executor Listenerを実行するExecutor。nullの場合は完了させたスレッド上で実行される。
+     */
+    public PlayServiceFuture<T> addListener(@Nullable Executor executor, @NonNull Listener<T> listener) {
+        final Runnable task = () -> listener.onComplete(this);
+        final Runnable command = (executor != null ? () -> executor.execute(task) : task);
+        synchronized (this) {
+            if (mListeners != null) {
+                mListeners.add(command);
+                return this;
+            }
+        }
+        command.run();
+        return this;
+    }
+
+    /**
+     * 結果を変換したFutureを生成する。
+     *
+     * 生成されたFutureのキャンセルはこのFutureへ伝搬する。
+     */
+    public <R> PlayServiceFuture<R> map(@NonNull Function<T, R> function) {
+        final PlayServiceFuture<R> result = new PlayServiceFuture<>();
+        result.addCancelHook(() -> cancel(false));
+        addListener(future -> {
+            if (forwardFailure(result)) {
+                return;
+            }
+            try {
+                result.complete(function.apply(mLatch.get()));
+            } catch (Throwable e) {
+                result.fail(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 結果を元に次の非同期処理を行うFutureを生成する。
+     *
+     * 生成されたFutureのキャンセルは、実行中の処理へ伝搬する。
+     */
+    public <R> PlayServiceFuture<R> then(@NonNull AsyncFunction<T, R> function) {
+        final PlayServiceFuture<R> result = new PlayServiceFuture<>();
+        result.addCancelHook(() -> cancel(false));
+        addListener(future -> {
+            if (forwardFailure(result)) {
+                return;
+            }
+            try {
+                PlayServiceFuture<R> next = function.apply(mLatch.get());
+                result.addCancelHook(() -> next.cancel(false));
+                next.addListener(it -> {
+                    if (!it.forwardFailure(result)) {
+                        result.complete(it.mLatch.get());
+                    }
+                });
+            } catch (Throwable e) {
+                result.fail(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * キャンセルチェックを行いつつ、完了待ちを行う
+     *
+     * @throws InterruptedException キャンセルされた
+     * @throws PlayServiceException 処理に失敗した
+     */
+    public T await(CancelCallback cancelCallback) throws InterruptedException, PlayServiceException {
+        final long interval = ResultLatch.getDefaultCancelCheckInterval();
+        // CancelTokenであればキャンセルされた時点で即座に中断する
+        final CancelToken.Registration registration =
+                (cancelCallback instanceof CancelToken) ? ((CancelToken) cancelCallback).register(() -> cancel(true)) : null;
+        try {
+            while (!mLatch.awaitDone(interval, TimeUnit.MILLISECONDS)) {
+                if (CallbackUtils.isCanceled(cancelCallback)) {
+                    cancel(true);
+                    break;
+                }
+            }
+            // キャンセルが完了と競合した場合、完了側の書き込みを待つ
+            mLatch.awaitDone(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            cancel(true);
+            throw e;
+        } finally {
+            if (registration != null) {
+                registration.unregister();
+            }
+        }
+
+        Throwable error = mLatch.getAbortReason();
+        if (error instanceof CancellationException) {
+            throw new InterruptedException();
+        } else if (error != null) {
+            throw (PlayServiceException) error;
+        }
+        return mLatch.get();
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return mLatch.getAbortReason() instanceof CancellationException;
+    }
+
+    /**
+     * タイムアウトによって失敗した場合true
+     */
+    public boolean isTimeout() {
+        return mLatch.getAbortReason() instanceof PlayServiceTimeoutException;
+    }
+
+    @Override
+    public boolean isDone() {
+        return mLatch.isDone();
+    }
+
+    /**
+     * 失敗している場合、その理由を取得する
+     */
+    @Nullable
+    public PlayServiceException getError() {
+        Throwable error = mLatch.getAbortReason();
+        return (error instanceof PlayServiceException) ? (PlayServiceException) error : null;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        mLatch.awaitDone(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        return getDoneResult();
+    }
+
+    @Override
+    public T get(long timeout, @NonNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!mLatch.awaitDone(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getDoneResult();
+    }
+
+    private T getDoneResult() throws ExecutionException {
+        Throwable error = mLatch.getAbortReason();
+        if (error instanceof CancellationException) {
+            throw (CancellationException) error;
+        } else if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return mLatch.get();
+    }
+
+    /**
+     * 失敗・キャンセルをdstへ伝搬させる
+     *
+     * @return 伝搬させた場合true
+     */
+    private boolean forwardFailure(PlayServiceFuture<?> dst) {
+        Throwable error = mLatch.getAbortReason();
+        if (error instanceof CancellationException) {
+            dst.cancel(false);
+            return true;
+        } else if (error != null) {
+            dst.fail(error);
+            return true;
+        }
+        return false;
+    }
+
+    private void onDone(boolean runCancelHooks) {
+        List<Runnable> listeners;
+        List<Runnable> hooks;
+        synchronized (this) {
+            listeners = mListeners;
+            hooks = mCancelHooks;
+            mListeners = null;
+            mCancelHooks = null;
+        }
+
+        if (runCancelHooks) {
+            for (Runnable hook : hooks) {
+                hook.run();
+            }
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    static PlayServiceException toPlayServiceException(Throwable error) {
+        if (error instanceof PlayServiceException) {
+            return (PlayServiceException) error;
+        } else {
+            return new PlayServiceException(error);
+        }
+    }
+}
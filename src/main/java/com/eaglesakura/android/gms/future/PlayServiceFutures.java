@@ -0,0 +1,146 @@
+package com.eaglesakura.android.gms.future;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.OptionalPendingResult;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.Result;
+import com.google.android.gms.tasks.Task;
+
+import com.eaglesakura.android.gms.client.PlayServiceConnectScheduler;
+import com.eaglesakura.android.gms.client.PlayServiceConnection;
+import com.eaglesakura.android.gms.error.PlayServiceException;
+import com.eaglesakura.android.gms.util.PlayServiceUtil;
+
+import android.support.annotation.NonNull;
+
+/**
+ * PlayServiceの非同期処理をスレッドを占有しない{@link PlayServiceFuture}へ変換する
+ *
+ * 全ての完了通知はPlayServiceのコールバックで行われ、タイムアウト管理は{@link com.eaglesakura.android.gms.util.PlayServiceTimer}の1スレッドのみで行う。
+ * そのため、N個の同時処理を行ってもスレッド数はO(1)となる。
+ */
+public class PlayServiceFutures {
+
+    /**
+     * PendingResultをFutureへ変換する。
+     *
+     * Futureのキャンセルは{@link PendingResult#cancel()}へ伝搬し、
+     * PendingResultのキャンセルはFutureのキャンセルとして扱われる。
+     */
+    public static <T extends Result> PlayServiceFuture<T> from(@NonNull PendingResult<T> task) {
+        final PlayServiceFuture<T> future = new PlayServiceFuture<>();
+        future.addCancelHook(() -> task.cancel());
+        task.setResultCallback(result -> {
+            if (result.getStatus() != null && result.getStatus().isCanceled()) {
+                future.cancel(false);
+            } else {
+                future.complete(result);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * OptionalPendingResultをFutureへ変換する。
+     *
+     * 既に結果が確定している場合、完了済みのFutureを返す。
+     */
+    public static <T extends Result> PlayServiceFuture<T> from(@NonNull OptionalPendingResult<T> task) {
+        if (task.isDone()) {
+            final PlayServiceFuture<T> future = new PlayServiceFuture<>();
+            future.complete(task.get());
+            return future;
+        }
+        return from((PendingResult<T>) task);
+    }
+
+    /**
+     * TaskをFutureへ変換する。
+     *
+     * Taskの失敗は{@link PlayServiceException}として扱われる。
+     * GMSのTaskはキャンセルできないため、Futureのキャンセルは結果の破棄のみを行う。
+     * 完了通知は{@link PlayServiceUtil#getCallbackExecutor()}で行われる。
+     */
+    public static <T> PlayServiceFuture<T> from(@NonNull Task<T> task) {
+        final PlayServiceFuture<T> future = new PlayServiceFuture<>();
+        task.addOnCompleteListener(PlayServiceUtil.getCallbackExecutor(), it -> {
+            if (it.isSuccessful()) {
+                future.complete(it.getResult());
+            } else {
+                Exception error = it.getException();
+                future.fail(error != null ? error : new PlayServiceException("Task failed"));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * APIに対して非同期に接続する。
+     *
+     * 接続に失敗した場合は{@link PlayServiceConnection#getClientIfSuccess()}と同じ例外で失敗する。
+     * Futureのキャンセルは接続中のClientを切断する。
+     * 接続は{@link PlayServiceConnectScheduler}で枠を確保してから開始され、Futureの完了時に枠を返却する。
+     *
+     * @param builder     接続対象のAPI
+     * @param connectMode 接続モード
+     * @see GoogleApiClient#SIGN_IN_MODE_REQUIRED
+     * @see GoogleApiClient#SIGN_IN_MODE_OPTIONAL
+     */
+    public static PlayServiceFuture<PlayServiceConnection> connect(@NonNull GoogleApiClient.Builder builder, int connectMode) {
+        return connect(listener -> PlayServiceConnection.newInstanceAsync(builder, connectMode, listener));
+    }
+
+    /**
+     * APIに対して非同期に接続する。
+     *
+     * 接続モードは{@link PlayServiceConnection#newInstanceAsync(GoogleApiClient.Builder, PlayServiceConnection.ConnectListener)}と同様に判定される。
+     */
+    public static PlayServiceFuture<PlayServiceConnection> connect(@NonNull GoogleApiClient.Builder builder) {
+        return connect(listener -> PlayServiceConnection.newInstanceAsync(builder, listener));
+    }
+
+    /**
+     * 接続の枠を確保してから非同期に接続する
+     *
+     * 枠は成功・失敗・キャンセルのいずれで完了した場合も返却される。
+     * Futureのキャンセルで接続中のClientを切断させる。
+     *
+     * @param connector 枠の確保後に接続を開始する
+     */
+    private static PlayServiceFuture<PlayServiceConnection> connect(AsyncConnector connector) {
+        final PlayServiceFuture<PlayServiceConnection> future = new PlayServiceFuture<>();
+        final PlayServiceConnectScheduler.Ticket ticket =
+                PlayServiceConnectScheduler.getInstance().submit(PlayServiceConnectScheduler.Priority.Default, admitted -> {
+                    if (future.isDone()) {
+                        // 待機中にキャンセルされた
+                        return;
+                    }
+                    try {
+                        final GoogleApiClient client = connector.connect(newConnectListener(future));
+                        future.addCancelHook(() -> client.disconnect());
+                    } catch (IllegalStateException e) {
+                        future.fail(e);
+                    }
+                });
+        future.addListener(it -> ticket.release());
+        return future;
+    }
+
+    private interface AsyncConnector {
+        GoogleApiClient connect(PlayServiceConnection.ConnectListener listener);
+    }
+
+    private static PlayServiceConnection.ConnectListener newConnectListener(PlayServiceFuture<PlayServiceConnection> future) {
+        return connection -> {
+            try {
+                connection.getClientIfSuccess();
+                if (future.complete(connection)) {
+                    return;
+                }
+            } catch (PlayServiceException e) {
+                future.fail(e);
+            }
+            connection.release();
+        };
+    }
+}
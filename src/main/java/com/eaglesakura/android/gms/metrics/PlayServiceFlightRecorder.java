@@ -0,0 +1,373 @@
+package com.eaglesakura.android.gms.metrics;
+
+import com.eaglesakura.android.gms.client.PlayServiceConnectScheduler;
+import com.eaglesakura.android.gms.client.PlayServiceConnection;
+import com.eaglesakura.android.gms.error.PlayServiceException;
+import com.eaglesakura.android.gms.util.PlayServiceScheduler;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 直近の接続・待機のイベントを固定長のリングバッファに記録する
+ *
+ * {@link PlayServiceMetrics#setInstance(PlayServiceMetrics)}で登録し、接続が終わらない・失敗する等の
+ * 本番環境の問題が発生した時点で{@link #dump()}し、それまでの経緯を確認する。
+ *
+ * 記録はロックとアロケーションを伴わず、各イベントは時刻(System.nanoTime)・スレッドID・数値の引数のみを保持する。
+ * 接続対象のキーや待機対象の型は文字列のハッシュ値として記録される。
+ * バッファが一周した場合は古いイベントから上書きされる。
+ */
+public class PlayServiceFlightRecorder extends PlayServiceMetrics {
+    /**
+     * 例外発生時のダンプの通知先
+     */
+    public interface ErrorDumpListener {
+        /**
+         * @param type 発生した例外の型
+         * @param dump {@link #dump()}の結果
+         */
+        void onDump(@NonNull Class<? extends Throwable> type, @NonNull String dump);
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    public static final int EVENT_CONNECT_START = 1;
+
+    public static final int EVENT_CONNECT_END = 2;
+
+    public static final int EVENT_CONNECT_CANCELED = 3;
+
+    public static final int EVENT_CONNECT_ADMITTED = 4;
+
+    public static final int EVENT_SIGN_IN_MODE_FALLBACK = 5;
+
+    public static final int EVENT_AWAIT_START = 6;
+
+    public static final int EVENT_AWAIT_END = 7;
+
+    public static final int EVENT_TOKEN_FETCH = 8;
+
+    public static final int EVENT_EXCEPTION = 9;
+
+    private static final String[] EVENT_NAMES = {
+            "?", "CONNECT_START", "CONNECT_END", "CONNECT_CANCELED", "CONNECT_ADMITTED",
+            "MODE_FALLBACK", "AWAIT_START", "AWAIT_END", "TOKEN_FETCH", "EXCEPTION",
+    };
+
+    /**
+     * バイナリ形式の識別子
+     */
+    private static final int BINARY_MAGIC = 0x50534652;
+
+    private static final int BINARY_VERSION = 1;
+
+    /**
+     * 1イベントの要素数
+     * [シーケンス番号][時刻][種類・補助値・スレッドID][引数0][引数1]
+     */
+    private static final int SLOT_SIZE = 5;
+
+    /**
+     * 書き込み中を示すシーケンス番号
+     */
+    private static final long WRITING = -1;
+
+    private final AtomicLongArray mBuffer;
+
+    private final AtomicLong mCursor = new AtomicLong();
+
+    private final int mMask;
+
+    private final PlayServiceMetrics mDelegate;
+
+    private volatile ErrorDumpListener mErrorDumpListener;
+
+    private volatile long mErrorDumpIntervalNanos;
+
+    /**
+     * 最後に例外でダンプした時刻
+     */
+    private final AtomicLong mLastErrorDumpTime = new AtomicLong();
+
+    public PlayServiceFlightRecorder() {
+        this(DEFAULT_CAPACITY, null);
+    }
+
+    /**
+     * @param capacity 記録するイベント数。2の累乗に切り上げられる
+     * @param delegate 計測値をそのまま転送する先。不要な場合はnull
+     */
+    public PlayServiceFlightRecorder(int capacity, @Nullable PlayServiceMetrics delegate) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mBuffer = new AtomicLongArray(size * SLOT_SIZE);
+        mMask = size - 1;
+        mDelegate = (delegate != null ? delegate : NONE);
+        for (int i = 0; i < size; ++i) {
+            mBuffer.set(i * SLOT_SIZE, WRITING);
+        }
+    }
+
+    /**
+     * 想定外の例外(接続の中断・タイムアウト等を除く)が発生した時点でダンプする
+     *
+     * 例外を生成したスレッドを止めないよう、ダンプは{@link PlayServiceScheduler#executeBlocking(Runnable)}で行われる。
+     * 頻発する場合に備えて最短間隔が設けられる。
+     *
+     * @param listener    ダンプの通知先。nullの場合は停止する
+     * @param minInterval ダンプを行う最短間隔
+     */
+    public void setErrorDumpListener(@Nullable ErrorDumpListener listener, long minInterval, @NonNull TimeUnit unit) {
+        mErrorDumpIntervalNanos = unit.toNanos(minInterval);
+        mErrorDumpListener = listener;
+    }
+
+    /**
+     * 記録したイベント数。上書きされたものを含む
+     */
+    public long getRecordedCount() {
+        return mCursor.get();
+    }
+
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    private void record(int type, int aux, long arg0, long arg1) {
+        final long sequence = mCursor.getAndIncrement();
+        final int base = (int) (sequence & mMask) * SLOT_SIZE;
+        final long meta = ((long) type << 56) | ((long) (aux & 0xFFFFFF) << 32) | (Thread.currentThread().getId() & 0xFFFFFFFFL);
+
+        // 読み込み側が書き込み途中の値を採用しないよう、先に無効化する
+        mBuffer.set(base, WRITING);
+        mBuffer.lazySet(base + 1, System.nanoTime());
+        mBuffer.lazySet(base + 2, meta);
+        mBuffer.lazySet(base + 3, arg0);
+        mBuffer.lazySet(base + 4, arg1);
+        mBuffer.lazySet(base, sequence);
+    }
+
+    private static int hash(@Nullable String value) {
+        return (value != null ? value.hashCode() : 0);
+    }
+
+    /**
+     * 記録済みのイベントを古い順に複製する
+     *
+     * 書き込み中・上書き中のイベントは含まれない。
+     *
+     * @return イベントごとに[時刻][種類・補助値・スレッドID][引数0][引数1]を並べた配列
+     */
+    @NonNull
+    public long[] snapshot() {
+        final long end = mCursor.get();
+        final long start = Math.max(0, end - (mMask + 1));
+        final long[] temp = new long[(int) (end - start) * 4];
+        int count = 0;
+        for (long sequence = start; sequence < end; ++sequence) {
+            final int base = (int) (sequence & mMask) * SLOT_SIZE;
+            if (mBuffer.get(base) != sequence) {
+                continue;
+            }
+            final long time = mBuffer.get(base + 1);
+            final long meta = mBuffer.get(base + 2);
+            final long arg0 = mBuffer.get(base + 3);
+            final long arg1 = mBuffer.get(base + 4);
+            if (mBuffer.get(base) != sequence) {
+                // 読み込み中に上書きされた
+                continue;
+            }
+            temp[count * 4] = time;
+            temp[count * 4 + 1] = meta;
+            temp[count * 4 + 2] = arg0;
+            temp[count * 4 + 3] = arg1;
+            ++count;
+        }
+
+        final long[] result = new long[count * 4];
+        System.arraycopy(temp, 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * 記録済みのイベントをテキストに変換する
+     *
+     * 時刻はダンプ時点からの経過時間(ms)となる。
+     */
+    @NonNull
+    public String dump() {
+        final long[] events = snapshot();
+        final long now = System.nanoTime();
+        final StringBuilder builder = new StringBuilder(events.length * 16);
+        for (int i = 0; i < events.length; i += 4) {
+            final long meta = events[i + 1];
+            final int type = (int) (meta >>> 56);
+            final int aux = (int) ((meta >>> 32) & 0xFFFFFF);
+            final long arg0 = events[i + 2];
+            final long arg1 = events[i + 3];
+
+            builder.append(String.format(Locale.US, "-%.3fms t=%d %s", (now - events[i]) / 1000000.0, meta & 0xFFFFFFFFL,
+                    (type < EVENT_NAMES.length ? EVENT_NAMES[type] : EVENT_NAMES[0])));
+            switch (type) {
+                case EVENT_CONNECT_START:
+                    builder.append(String.format(Locale.US, " key=%08x mode=%d", (int) arg0, aux));
+                    break;
+                case EVENT_CONNECT_END:
+                    builder.append(String.format(Locale.US, " key=%08x status=%s error=%d %s",
+                            (int) (arg0 >>> 32), toStatusName(aux), (int) arg0, toMsText(arg1)));
+                    break;
+                case EVENT_CONNECT_CANCELED:
+                    builder.append(String.format(Locale.US, " key=%08x %s", (int) arg0, toMsText(arg1)));
+                    break;
+                case EVENT_CONNECT_ADMITTED:
+                    builder.append(String.format(Locale.US, " priority=%s queue=%d wait=%s", toPriorityName(aux), arg0, toMsText(arg1)));
+                    break;
+                case EVENT_SIGN_IN_MODE_FALLBACK:
+                    builder.append(String.format(Locale.US, " key=%08x", (int) arg0));
+                    break;
+                case EVENT_AWAIT_START:
+                    builder.append(String.format(Locale.US, " type=%08x", (int) arg0));
+                    break;
+                case EVENT_AWAIT_END:
+                    builder.append(String.format(Locale.US, " type=%08x canceled=%b %s", (int) arg0, aux != 0, toMsText(arg1)));
+                    break;
+                case EVENT_TOKEN_FETCH:
+                    builder.append(String.format(Locale.US, " success=%b %s", aux != 0, toMsText(arg1)));
+                    break;
+                case EVENT_EXCEPTION:
+                    builder.append(String.format(Locale.US, " type=%08x controlFlow=%b", (int) arg0, aux != 0));
+                    break;
+                default:
+                    break;
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 記録済みのイベントをバイナリ形式で書き出す
+     *
+     * 形式は識別子・バージョン・ダンプ時刻・イベント数(int)の後に、{@link #snapshot()}の値を順に並べたものとなる。
+     * streamは閉じられない。
+     */
+    public void writeTo(@NonNull OutputStream stream) throws IOException {
+        final long[] events = snapshot();
+        DataOutputStream output = new DataOutputStream(stream);
+        output.writeInt(BINARY_MAGIC);
+        output.writeInt(BINARY_VERSION);
+        output.writeLong(System.nanoTime());
+        output.writeInt(events.length / 4);
+        for (long value : events) {
+            output.writeLong(value);
+        }
+        output.flush();
+    }
+
+    private static String toMsText(long nanos) {
+        return String.format(Locale.US, "%.3fms", nanos / 1000000.0);
+    }
+
+    private static String toStatusName(int ordinal) {
+        PlayServiceConnection.Status[] values = PlayServiceConnection.Status.values();
+        return (ordinal < values.length ? values[ordinal].name() : String.valueOf(ordinal));
+    }
+
+    private static String toPriorityName(int ordinal) {
+        PlayServiceConnectScheduler.Priority[] values = PlayServiceConnectScheduler.Priority.values();
+        return (ordinal < values.length ? values[ordinal].name() : String.valueOf(ordinal));
+    }
+
+    @Override
+    public void onConnectStart(@Nullable String apiKey, int connectMode) {
+        record(EVENT_CONNECT_START, connectMode, hash(apiKey), 0);
+        mDelegate.onConnectStart(apiKey, connectMode);
+    }
+
+    @Override
+    public void onSignInModeFallback(@Nullable String apiKey) {
+        record(EVENT_SIGN_IN_MODE_FALLBACK, 0, hash(apiKey), 0);
+        mDelegate.onSignInModeFallback(apiKey);
+    }
+
+    @Override
+    public void onConnect(@Nullable String apiKey, long durationNanos, @NonNull PlayServiceConnection.Status status, int errorCode) {
+        record(EVENT_CONNECT_END, status.ordinal(), ((long) hash(apiKey) << 32) | (errorCode & 0xFFFFFFFFL), durationNanos);
+        mDelegate.onConnect(apiKey, durationNanos, status, errorCode);
+    }
+
+    @Override
+    public void onConnectCanceled(@Nullable String apiKey, long durationNanos) {
+        record(EVENT_CONNECT_CANCELED, 0, hash(apiKey), durationNanos);
+        mDelegate.onConnectCanceled(apiKey, durationNanos);
+    }
+
+    @Override
+    public void onConnectAdmitted(@NonNull PlayServiceConnectScheduler.Priority priority, long waitNanos, int queueDepth) {
+        record(EVENT_CONNECT_ADMITTED, priority.ordinal(), queueDepth, waitNanos);
+        mDelegate.onConnectAdmitted(priority, waitNanos, queueDepth);
+    }
+
+    @Override
+    public void onAwaitStart(@NonNull Class<?> taskType) {
+        record(EVENT_AWAIT_START, 0, hash(taskType.getName()), 0);
+        mDelegate.onAwaitStart(taskType);
+    }
+
+    @Override
+    public void onAwait(@NonNull Class<?> resultType, long waitNanos, boolean canceled) {
+        record(EVENT_AWAIT_END, canceled ? 1 : 0, hash(resultType.getName()), waitNanos);
+        mDelegate.onAwait(resultType, waitNanos, canceled);
+    }
+
+    @Override
+    public void onTokenFetch(long durationNanos, boolean success) {
+        record(EVENT_TOKEN_FETCH, success ? 1 : 0, 0, durationNanos);
+        mDelegate.onTokenFetch(durationNanos, success);
+    }
+
+    @Override
+    public void onException(@NonNull Class<? extends PlayServiceException> type, boolean controlFlow) {
+        record(EVENT_EXCEPTION, controlFlow ? 1 : 0, hash(type.getName()), 0);
+        mDelegate.onException(type, controlFlow);
+        if (!controlFlow) {
+            requestErrorDump(type);
+        }
+    }
+
+    @Override
+    public void onUncaughtError(@NonNull Throwable error) {
+        record(EVENT_EXCEPTION, 0, hash(error.getClass().getName()), 0);
+        mDelegate.onUncaughtError(error);
+        requestErrorDump(error.getClass());
+    }
+
+    /**
+     * 最小間隔を空けてダンプを通知する
+     */
+    private void requestErrorDump(@NonNull Class<? extends Throwable> type) {
+        final ErrorDumpListener listener = mErrorDumpListener;
+        if (listener == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final long last = mLastErrorDumpTime.get();
+        if (last != 0 && (now - last) < mErrorDumpIntervalNanos) {
+            return;
+        }
+        if (mLastErrorDumpTime.compareAndSet(last, now)) {
+            PlayServiceScheduler.executeBlocking(() -> listener.onDump(type, dump()));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.eaglesakura.android.gms.metrics;
+
+import com.eaglesakura.android.gms.client.PlayServiceConnectScheduler;
+import com.eaglesakura.android.gms.client.PlayServiceConnection;
+import com.eaglesakura.android.gms.error.PlayServiceException;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * 接続・待機・トークン取得の計測値を受け取る
+ *
+ * 必要なメソッドのみをoverrideし、{@link #setInstance(PlayServiceMetrics)}で登録する。
+ * 未登録の場合は何も記録せず、時刻の取得も行わない。
+ *
+ * 各メソッドは計測対象のスレッドから直接呼び出されるため、実装側でブロッキングやアロケーションを行わないこと。
+ * 引数は全てプリミティブか定数であり、呼び出し側ではアロケーションは発生しない。
+ */
+public class PlayServiceMetrics {
+    /**
+     * 何も記録しない
+     */
+    public static final PlayServiceMetrics NONE = new PlayServiceMetrics();
+
+    private static volatile PlayServiceMetrics sInstance = NONE;
+
+    /**
+     * 計測値の送信先を登録する
+     *
+     * @param metrics 送信先。nullの場合は記録を停止する
+     */
+    public static void setInstance(@Nullable PlayServiceMetrics metrics) {
+        sInstance = (metrics != null ? metrics : NONE);
+    }
+
+    @NonNull
+    public static PlayServiceMetrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 計測が有効であればtrue
+     */
+    public static boolean isEnabled() {
+        return sInstance != NONE;
+    }
+
+    /**
+     * 計測の開始時刻を取得する。計測が無効な場合は0を返す。
+     */
+    public static long startTime() {
+        return sInstance != NONE ? System.nanoTime() : 0;
+    }
+
+    /**
+     * 接続を開始した
+     *
+     * @param apiKey      接続対象を示すキー。Builderから直接接続した場合はnull
+     * @param connectMode 接続モード
+     */
+    public void onConnectStart(@Nullable String apiKey, int connectMode) {
+    }
+
+    /**
+     * SIGN_IN_MODE_REQUIREDで接続できず、SIGN_IN_MODE_OPTIONALで接続し直した
+     *
+     * @param apiKey 接続対象を示すキー。Builderから直接接続した場合はnull
+     */
+    public void onSignInModeFallback(@Nullable String apiKey) {
+    }
+
+    /**
+     * 接続が完了した
+     *
+     * @param apiKey        接続対象を示すキー。Builderから直接接続した場合はnull
+     * @param durationNanos 接続に要した時間
+     * @param status        接続結果
+     * @param errorCode     Failedの場合はConnectionResultのエラーコード、Suspendedの場合はその理由
+     * @see com.eaglesakura.android.gms.client.PlayServiceConnectionSpec#getKey()
+     */
+    public void onConnect(@Nullable String apiKey, long durationNanos, @NonNull PlayServiceConnection.Status status, int errorCode) {
+    }
+
+    /**
+     * 接続待ちがキャンセルされた
+     *
+     * @param apiKey        接続対象を示すキー。Builderから直接接続した場合はnull
+     * @param durationNanos キャンセルまでの時間
+     */
+    public void onConnectCanceled(@Nullable String apiKey, long durationNanos) {
+    }
+
+    /**
+     * 接続待ちが開始された
+     *
+     * @param priority   接続の優先度
+     * @param waitNanos  開始までの待機時間
+     * @param queueDepth 開始時点で待機している接続数
+     */
+    public void onConnectAdmitted(@NonNull PlayServiceConnectScheduler.Priority priority, long waitNanos, int queueDepth) {
+    }
+
+    /**
+     * PendingResult/Taskの待機を開始した
+     *
+     * @param taskType 待機対象の型
+     */
+    public void onAwaitStart(@NonNull Class<?> taskType) {
+    }
+
+    /**
+     * PendingResult/Taskの待機が終了した
+     *
+     * @param resultType 待機対象の型
+     * @param waitNanos  待機時間
+     * @param canceled   キャンセルされた場合true
+     */
+    public void onAwait(@NonNull Class<?> resultType, long waitNanos, boolean canceled) {
+    }
+
+    /**
+     * アクセストークンの取得が終了した
+     *
+     * キャッシュから返却された場合は呼び出されない。
+     *
+     * @param durationNanos 取得に要した時間
+     * @param success       取得に成功した場合true
+     */
+    public void onTokenFetch(long durationNanos, boolean success) {
+    }
+
+    /**
+     * {@link PlayServiceException}が生成された
+     *
+     * 例外を生成したスレッドで、そのコンストラクタから呼び出されるため、記録のみを行う。
+     *
+     * @param type        生成された例外の型
+     * @param controlFlow 呼び出し元が通常の処理として扱う失敗(接続の中断、サインイン要求、タイムアウト等)であればtrue
+     */
+    public void onException(@NonNull Class<? extends PlayServiceException> type, boolean controlFlow) {
+    }
+
+    /**
+     * 呼び出し元へ通知できない例外を握りつぶした
+     *
+     * 接続の切断やタイマーからの呼び出し等、例外を投げる先が無い箇所から呼び出される。
+     *
+     * @param error 握りつぶした例外
+     */
+    public void onUncaughtError(@NonNull Throwable error) {
+    }
+}
@@ -0,0 +1,91 @@
+package com.eaglesakura.android.gms.util;
+
+import android.os.Build;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 結果待ちのparkを実行環境に合わせて行う
+ *
+ * ForkJoinPoolのワーカースレッド上では{@link ForkJoinPool#managedBlock(ForkJoinPool.ManagedBlocker)}を経由させ、
+ * 待機中は補償スレッドを起動させることでPoolの並列度を維持する。
+ * それ以外のスレッドでは{@link CountDownLatch}(LockSupport)で直接parkする。
+ * いずれの場合もsynchronizedやsleepを使用しないため、キャリアスレッドを占有しない。
+ */
+class BlockingSupport {
+    /**
+     * ForkJoinPoolはAPI 21以降でのみ利用できる
+     */
+    private static final boolean FORK_JOIN_SUPPORTED = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+
+    /**
+     * latchが解放されるか、timeoutまで待機する
+     *
+     * @return latchが解放された場合true
+     */
+    static boolean await(CountDownLatch latch, long timeout, TimeUnit unit) throws InterruptedException {
+        if (FORK_JOIN_SUPPORTED && ForkJoinBlocker.isWorkerThread()) {
+            return ForkJoinBlocker.await(latch, timeout, unit);
+        }
+        return latch.await(timeout, unit);
+    }
+
+    /**
+     * latchが解放されるまで待機する
+     */
+    static void await(CountDownLatch latch) throws InterruptedException {
+        if (FORK_JOIN_SUPPORTED && ForkJoinBlocker.isWorkerThread()) {
+            ForkJoinBlocker.await(latch, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            return;
+        }
+        latch.await();
+    }
+
+    /**
+     * API 21未満でクラスをロードさせないため、ForkJoinPoolへの参照はこのクラスに閉じ込める
+     */
+    private static class ForkJoinBlocker implements ForkJoinPool.ManagedBlocker {
+        final CountDownLatch mLatch;
+
+        final long mTimeout;
+
+        final TimeUnit mUnit;
+
+        ForkJoinBlocker(CountDownLatch latch, long timeout, TimeUnit unit) {
+            mLatch = latch;
+            mTimeout = timeout;
+            mUnit = unit;
+        }
+
+        static boolean isWorkerThread() {
+            return Thread.currentThread() instanceof ForkJoinWorkerThread;
+        }
+
+        static boolean await(CountDownLatch latch, long timeout, TimeUnit unit) throws InterruptedException {
+            if (latch.getCount() == 0) {
+                return true;
+            }
+            ForkJoinPool.managedBlock(new ForkJoinBlocker(latch, timeout, unit));
+            return latch.getCount() == 0;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (mTimeout == Long.MAX_VALUE) {
+                mLatch.await();
+            } else {
+                mLatch.await(mTimeout, mUnit);
+            }
+            // タイムアウトした場合も呼び出し元でキャンセルチェックを行うため、ここで終了する
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return mLatch.getCount() == 0;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.eaglesakura.android.gms.util;
+
+import com.eaglesakura.android.gms.metrics.PlayServiceMetrics;
+import com.eaglesakura.lambda.CancelCallback;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * キャンセルを通知するトークン
+ *
+ * {@link CancelCallback}はポーリングでしかキャンセルを検出できないが、
+ * このトークンは{@link #cancel()}された時点で登録済みの処理を直接実行する。
+ * {@link ResultLatch}や{@link PlayServiceUtil#await(com.google.android.gms.common.api.PendingResult, CancelCallback)}等に
+ * CancelCallbackとして渡した場合、待機はポーリングを行わずに即座に中断され、PendingResultのキャンセルや接続中のClientの切断が行われる。
+ *
+ * {@link #newChild()}で生成したトークンは親のキャンセルに連動し、子のみをキャンセルすることもできる。
+ */
+public class CancelToken implements CancelCallback {
+    /**
+     * キャンセル時の処理の登録
+     */
+    public interface Registration {
+        /**
+         * 登録を解除する。キャンセル済みの場合は何もしない
+         */
+        void unregister();
+    }
+
+    private static final Registration EMPTY_REGISTRATION = () -> {
+    };
+
+    /**
+     * キャンセル時に実行する処理
+     * キャンセル後はnullとなる
+     */
+    private List<Runnable> mActions = new ArrayList<>();
+
+    private volatile boolean mCanceled;
+
+    /**
+     * 親トークンへの登録
+     */
+    private Registration mParentRegistration = EMPTY_REGISTRATION;
+
+    public CancelToken() {
+    }
+
+    /**
+     * このトークンのキャンセルに連動する子トークンを生成する
+     *
+     * 子トークンが不要になった場合は{@link #dispose()}で親から切り離す。
+     */
+    @NonNull
+    public CancelToken newChild() {
+        final CancelToken child = new CancelToken();
+        final Registration registration = register(child::cancel);
+        synchronized (child) {
+            child.mParentRegistration = registration;
+        }
+        return child;
+    }
+
+    /**
+     * 指定時間後にキャンセルする
+     *
+     * キャンセルはタイマースレッドで行われるため、登録済みの処理が投げた例外は{@link PlayServiceMetrics#onUncaughtError(Throwable)}へ通知される。
+     */
+    @NonNull
+    public CancelToken cancelAfter(long delay, @NonNull TimeUnit unit) {
+        final PlayServiceTimer.Timeout timeout = PlayServiceTimer.schedule(this::cancelFromTimer, delay, unit);
+        register(timeout::cancel);
+        return this;
+    }
+
+    /**
+     * キャンセル時に実行する処理を登録する
+     *
+     * 既にキャンセルされている場合は、呼び出し元のスレッドで即座に実行される。
+     * 処理はcancel()を呼び出したスレッドで実行されるため、ブロッキングを伴わない処理のみを登録する。
+     *
+     * @return 登録。処理が不要になった場合は解除する
+     */
+    @NonNull
+    public Registration register(@NonNull Runnable action) {
+        synchronized (this) {
+            if (!mCanceled) {
+                mActions.add(action);
+                return () -> {
+                    synchronized (CancelToken.this) {
+                        if (mActions != null) {
+                            mActions.remove(action);
+                        }
+                    }
+                };
+            }
+        }
+        action.run();
+        return EMPTY_REGISTRATION;
+    }
+
+    /**
+     * キャンセルし、登録済みの処理を実行する
+     *
+     * 処理が例外を投げた場合も残りの処理は実行され、最初の例外がこのメソッドから投げられる。
+     *
+     * @return このトークンが初めてキャンセルされた場合true
+     */
+    public boolean cancel() {
+        final List<Runnable> actions;
+        synchronized (this) {
+            if (mCanceled) {
+                return false;
+            }
+            mCanceled = true;
+            actions = mActions;
+            mActions = null;
+        }
+
+        RuntimeException error = null;
+        for (Runnable action : actions) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                // 他の処理の実行を妨げないよう、全て実行してから呼び出し元へ投げる
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return true;
+    }
+
+    /**
+     * タイマースレッドからキャンセルする
+     *
+     * 例外を投げるとタイマーの他の処理を妨げるため、計測値へ通知して握りつぶす。
+     */
+    private void cancelFromTimer() {
+        try {
+            cancel();
+        } catch (RuntimeException e) {
+            if (PlayServiceMetrics.isEnabled()) {
+                PlayServiceMetrics.getInstance().onUncaughtError(e);
+            }
+        }
+    }
+
+    /**
+     * 親トークンから切り離し、登録済みの処理を全て解除する
+     */
+    public void dispose() {
+        final Registration parentRegistration;
+        synchronized (this) {
+            parentRegistration = mParentRegistration;
+            mParentRegistration = EMPTY_REGISTRATION;
+            if (mActions != null) {
+                mActions.clear();
+            }
+        }
+        parentRegistration.unregister();
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+}
@@ -0,0 +1,96 @@
+package com.eaglesakura.android.gms.util;
+
+import com.eaglesakura.android.gms.error.PlayServiceTimeoutException;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 処理の期限
+ *
+ * 時刻は{@link System#nanoTime()}を基準とするため、端末の時刻変更の影響を受けない。
+ * 1つのDeadlineを接続・待機・トークン取得へ順に渡すことで、一連の処理全体の期限とする。
+ */
+public final class Deadline {
+    /**
+     * 期限なし
+     */
+    public static final Deadline NONE = new Deadline(Long.MAX_VALUE, true);
+
+    private final long mDeadlineNanos;
+
+    private final boolean mInfinite;
+
+    private Deadline(long deadlineNanos, boolean infinite) {
+        mDeadlineNanos = deadlineNanos;
+        mInfinite = infinite;
+    }
+
+    /**
+     * 現在から指定時間後を期限とする
+     */
+    @NonNull
+    public static Deadline after(long time, @NonNull TimeUnit unit) {
+        final long now = System.nanoTime();
+        final long timeNanos = unit.toNanos(Math.max(time, 0));
+        if (timeNanos == Long.MAX_VALUE || now + timeNanos < now) {
+            // オーバーフローする場合は期限なしとして扱う
+            return NONE;
+        }
+        return new Deadline(now + timeNanos, false);
+    }
+
+    /**
+     * 期限が設定されていなければtrue
+     */
+    public boolean isInfinite() {
+        return mInfinite;
+    }
+
+    /**
+     * 期限を過ぎていればtrue
+     */
+    public boolean isExpired() {
+        return !mInfinite && mDeadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * 期限までの残り時間を取得する。
+     *
+     * 期限を過ぎている場合は0、期限が無い場合は{@link Long#MAX_VALUE}を返す。
+     */
+    public long getRemaining(@NonNull TimeUnit unit) {
+        if (mInfinite) {
+            return Long.MAX_VALUE;
+        }
+        return unit.convert(Math.max(mDeadlineNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 2つの期限のうち、早い方を取得する
+     */
+    @NonNull
+    public Deadline min(@NonNull Deadline other) {
+        if (mInfinite) {
+            return other;
+        } else if (other.mInfinite) {
+            return this;
+        }
+        return (mDeadlineNanos - other.mDeadlineNanos <= 0) ? this : other;
+    }
+
+    /**
+     * 期限を過ぎていれば例外を投げる
+     */
+    public void assertNotExpired() throws PlayServiceTimeoutException {
+        if (isExpired()) {
+            throw new PlayServiceTimeoutException("Deadline exceeded");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mInfinite ? "Deadline(none)" : ("Deadline(" + getRemaining(TimeUnit.MILLISECONDS) + "ms)");
+    }
+}
@@ -0,0 +1,107 @@
+package com.eaglesakura.android.gms.util;
+
+import com.eaglesakura.android.error.NetworkNotConnectException;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ネットワークの接続状態を共有する
+ *
+ * 接続状態は接続変更の通知を受けた時点でのみ更新されるため、
+ * 待機中のスレッドがいくつあっても接続状態の確認はvolatile変数の参照のみとなる。
+ */
+public class NetworkStateTracker {
+    /**
+     * 接続状態の変更通知を受け取る
+     */
+    public interface Listener {
+        void onNetworkStateChanged(boolean connected);
+    }
+
+    private static NetworkStateTracker sInstance;
+
+    private final Context mContext;
+
+    private volatile boolean mConnected;
+
+    private final Set<Listener> mListeners = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private final BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            update();
+        }
+    };
+
+    NetworkStateTracker(@NonNull Context context) {
+        mContext = context.getApplicationContext();
+        mConnected = queryConnected();
+        mContext.registerReceiver(mConnectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * アプリ内で共有されるTrackerを取得する
+     */
+    @NonNull
+    public static synchronized NetworkStateTracker getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new NetworkStateTracker(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * ネットワークに接続されていればtrue
+     */
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    /**
+     * ネットワークに接続されていなければ例外を投げる
+     */
+    public void assertConnected() throws NetworkNotConnectException {
+        if (!mConnected) {
+            throw new NetworkNotConnectException("Network not connected");
+        }
+    }
+
+    public void addListener(@NonNull Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(@NonNull Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * 接続状態を再取得し、変化していればListenerへ通知する
+     */
+    void update() {
+        final boolean connected = queryConnected();
+        if (connected == mConnected) {
+            return;
+        }
+
+        mConnected = connected;
+        for (Listener listener : mListeners) {
+            listener.onNetworkStateChanged(connected);
+        }
+    }
+
+    private boolean queryConnected() {
+        ConnectivityManager manager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = manager.getActiveNetworkInfo();
+        return info != null && info.isConnected();
+    }
+}
@@ -0,0 +1,187 @@
+package com.eaglesakura.android.gms.util;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GoogleApiAvailability;
+
+import com.eaglesakura.lambda.CancelCallback;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Google Play Serviceの利用可否をキャッシュする
+ *
+ * 利用可否はcom.google.android.gmsのインストール・更新・削除が通知された時点でのみ再チェックされるため、
+ * 通常の参照はPackageManagerへの問い合わせを伴わない。
+ */
+public class PlayServiceAvailabilityMonitor {
+    /**
+     * 変更通知を受け取る
+     */
+    public interface Listener {
+        /**
+         * 利用可否が変化した
+         *
+         * @param errorCode {@link GoogleApiAvailability#isGooglePlayServicesAvailable(Context)}の戻り値
+         */
+        void onAvailabilityChanged(int errorCode);
+    }
+
+    /**
+     * チェック結果がキャッシュされていない
+     */
+    private static final int ERROR_CODE_UNKNOWN = Integer.MIN_VALUE;
+
+    private static PlayServiceAvailabilityMonitor sInstance;
+
+    private final Context mContext;
+
+    private volatile int mErrorCode = ERROR_CODE_UNKNOWN;
+
+    private volatile int mVersionCode = ERROR_CODE_UNKNOWN;
+
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri data = intent.getData();
+            if (data != null && GoogleApiAvailability.GOOGLE_PLAY_SERVICES_PACKAGE.equals(data.getSchemeSpecificPart())) {
+                onPlayServicePackageChanged();
+            }
+        }
+    };
+
+    PlayServiceAvailabilityMonitor(@NonNull Context context) {
+        mContext = context.getApplicationContext();
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        mContext.registerReceiver(mPackageReceiver, filter);
+    }
+
+    /**
+     * アプリ内で共有されるMonitorを取得する
+     */
+    @NonNull
+    public static synchronized PlayServiceAvailabilityMonitor getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new PlayServiceAvailabilityMonitor(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * {@link GoogleApiAvailability#isGooglePlayServicesAvailable(Context)}の結果を取得する
+     *
+     * キャッシュされている場合、ロックやIPCを伴わずに返却する。
+     */
+    public int getErrorCode() {
+        int errorCode = mErrorCode;
+        if (errorCode == ERROR_CODE_UNKNOWN) {
+            errorCode = GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(mContext);
+            mErrorCode = errorCode;
+        }
+        return errorCode;
+    }
+
+    /**
+     * インストールされているGoogle Play ServiceのversionCodeを取得する
+     *
+     * インストールされていない場合は0を返す。結果はエラーコードと同様にキャッシュされる。
+     */
+    public int getVersionCode() {
+        int versionCode = mVersionCode;
+        if (versionCode == ERROR_CODE_UNKNOWN) {
+            try {
+                versionCode = mContext.getPackageManager().getPackageInfo(GoogleApiAvailability.GOOGLE_PLAY_SERVICES_PACKAGE, 0).versionCode;
+            } catch (PackageManager.NameNotFoundException e) {
+                versionCode = 0;
+            }
+            mVersionCode = versionCode;
+        }
+        return versionCode;
+    }
+
+    /**
+     * 必須バージョンがインストールされていればtrue
+     */
+    public boolean isAvailable() {
+        return getErrorCode() == ConnectionResult.SUCCESS;
+    }
+
+    /**
+     * キャッシュを破棄し、次回の参照時に再チェックさせる
+     */
+    public void invalidate() {
+        mErrorCode = ERROR_CODE_UNKNOWN;
+        mVersionCode = ERROR_CODE_UNKNOWN;
+    }
+
+    public void addListener(@NonNull Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(@NonNull Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Google Play Serviceが利用可能になるまで待機する
+     *
+     * 利用可否はパッケージの更新通知によってのみ再チェックされる。
+     *
+     * @throws InterruptedException キャンセルされた
+     */
+    public void awaitAvailable(CancelCallback cancelCallback) throws InterruptedException {
+        if (isAvailable()) {
+            return;
+        }
+
+        final ResultLatch<Integer> latch = new ResultLatch<>();
+        final Listener listener = errorCode -> {
+            if (errorCode == ConnectionResult.SUCCESS) {
+                latch.set(errorCode);
+            }
+        };
+        addListener(listener);
+        try {
+            // 登録前に更新された場合に備えて再度チェックする
+            if (isAvailable()) {
+                return;
+            }
+            latch.await(cancelCallback);
+        } finally {
+            removeListener(listener);
+        }
+    }
+
+    void onPlayServicePackageChanged() {
+        final int oldErrorCode = mErrorCode;
+        invalidate();
+        if (mListeners.isEmpty()) {
+            // 次回の参照時にチェックする
+            return;
+        }
+
+        final int newErrorCode = getErrorCode();
+        if (newErrorCode == oldErrorCode) {
+            return;
+        }
+        for (Listener listener : mListeners) {
+            listener.onAvailabilityChanged(newErrorCode);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.eaglesakura.android.gms.util;
+
+import com.google.android.gms.common.api.OptionalPendingResult;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.tasks.Task;
+
+import com.eaglesakura.android.error.NetworkNotConnectException;
+import com.eaglesakura.android.gms.error.PlayServiceException;
+import com.eaglesakura.lambda.CancelCallback;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 複数のPendingResult/Taskの完了を1つの待機で扱う
+ *
+ * 各要素の完了はコールバックで記録され、待機スレッドは必要数が揃った時点で一度だけ起こされる。
+ * キャンセルチェックとネットワーク監視は要素数にかかわらず1つのみとなる。
+ *
+ * PendingResultの結果は{@link PlayServiceUtil#await(PendingResult, CancelCallback)}と同じくStatusにかかわらず成功として扱い、
+ * Taskの失敗は要素ごとのエラーとして記録する。
+ */
+public class PlayServiceBatch {
+    private static final int STATE_PENDING = 0;
+
+    private static final int STATE_SUCCESS = 1;
+
+    private static final int STATE_FAILURE = 2;
+
+    private final Object[] mTasks;
+
+    private final AtomicReferenceArray<Object> mResults;
+
+    private final AtomicReferenceArray<Throwable> mErrors;
+
+    private final AtomicIntegerArray mStates;
+
+    /**
+     * 完了順に並べた要素のインデックス
+     */
+    private final AtomicIntegerArray mCompletedOrder;
+
+    private final AtomicInteger mCompletedCount = new AtomicInteger();
+
+    private final int mRequireCount;
+
+    private final ResultLatch<PlayServiceBatch> mLatch = new ResultLatch<>();
+
+    PlayServiceBatch(@NonNull Collection<?> tasks, int requireCount) {
+        if (requireCount < 0 || requireCount > tasks.size()) {
+            throw new IllegalArgumentException("requireCount(" + requireCount + ") tasks(" + tasks.size() + ")");
+        }
+
+        mTasks = tasks.toArray();
+        mResults = new AtomicReferenceArray<>(mTasks.length);
+        mErrors = new AtomicReferenceArray<>(mTasks.length);
+        mStates = new AtomicIntegerArray(mTasks.length);
+        mCompletedOrder = new AtomicIntegerArray(mTasks.length);
+        for (int i = 0; i < mTasks.length; ++i) {
+            mCompletedOrder.set(i, -1);
+        }
+        mRequireCount = requireCount;
+
+        for (Object task : mTasks) {
+            if (!(task instanceof PendingResult) && !(task instanceof Task)) {
+                throw new IllegalArgumentException("Not PendingResult/Task :: " + task);
+            }
+        }
+
+        if (requireCount == 0) {
+            mLatch.set(this);
+        }
+        for (int i = 0; i < mTasks.length; ++i) {
+            register(i, mTasks[i]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void register(int index, Object task) {
+        if (task instanceof OptionalPendingResult && ((OptionalPendingResult) task).isDone()) {
+            // 結果が確定済みであればコールバックを待たない
+            onSuccess(index, ((OptionalPendingResult) task).get());
+        } else if (task instanceof PendingResult) {
+            ((PendingResult<?>) task).setResultCallback(result -> onSuccess(index, result));
+        } else {
+            ((Task<Object>) task).addOnCompleteListener(PlayServiceUtil.getCallbackExecutor(), it -> {
+                if (it.isSuccessful()) {
+                    onSuccess(index, it.getResult());
+                } else {
+                    Exception error = it.getException();
+                    onFailure(index, error != null ? error : new PlayServiceException("Task failed"));
+                }
+            });
+        }
+    }
+
+    private void onSuccess(int index, Object result) {
+        mResults.set(index, result);
+        onComplete(index, STATE_SUCCESS);
+    }
+
+    private void onFailure(int index, Throwable error) {
+        mErrors.set(index, error);
+        onComplete(index, STATE_FAILURE);
+    }
+
+    private void onComplete(int index, int state) {
+        if (!mStates.compareAndSet(index, STATE_PENDING, state)) {
+            return;
+        }
+
+        final int order = mCompletedCount.getAndIncrement();
+        mCompletedOrder.set(order, index);
+        if (order + 1 == mRequireCount) {
+            mLatch.set(this);
+        }
+    }
+
+    /**
+     * 必要数の要素が完了するまで待機する
+     *
+     * 中断された場合、未完了のPendingResultはキャンセルされる。
+     */
+    PlayServiceBatch await(CancelCallback cancelCallback) throws InterruptedException {
+        try {
+            return mLatch.await(cancelCallback);
+        } catch (InterruptedException e) {
+            cancelPendingResults();
+            throw e;
+        }
+    }
+
+    /**
+     * ネットワークが切断された時点で中断される待機を行う
+     */
+    PlayServiceBatch awaitWithNetwork(Context context, CancelCallback cancelCallback) throws InterruptedException, NetworkNotConnectException {
+        try {
+            return PlayServiceUtil.awaitWithNetwork(context, mLatch, cancelCallback);
+        } catch (InterruptedException | NetworkNotConnectException e) {
+            cancelPendingResults();
+            throw e;
+        }
+    }
+
+    private void cancelPendingResults() {
+        for (int i = 0; i < mTasks.length; ++i) {
+            if (mStates.get(i) == STATE_PENDING && mTasks[i] instanceof PendingResult) {
+                ((PendingResult<?>) mTasks[i]).cancel();
+            }
+        }
+    }
+
+    /**
+     * 要素数を取得する
+     */
+    public int size() {
+        return mTasks.length;
+    }
+
+    /**
+     * 完了済みの要素数を取得する
+     *
+     * awaitAny/awaitFirstNの場合、待機終了後も未完了の要素は引き続き完了し得る。
+     */
+    public int getCompletedCount() {
+        return Math.min(mCompletedCount.get(), mTasks.length);
+    }
+
+    /**
+     * n番目に完了した要素のインデックスを取得する
+     *
+     * @param order 完了順。{@link #getCompletedCount()}未満である必要がある
+     */
+    public int getCompletedIndex(int order) {
+        if (order < 0 || order >= getCompletedCount()) {
+            throw new IndexOutOfBoundsException("order(" + order + ")");
+        }
+
+        // 完了数の加算から順序の書き込みまでの間は未反映のため、書き込まれるまで待つ
+        int index;
+        while ((index = mCompletedOrder.get(order)) < 0) {
+            Thread.yield();
+        }
+        return index;
+    }
+
+    /**
+     * 要素が完了していればtrue
+     *
+     * @param index 入力時の順序
+     */
+    public boolean isDone(int index) {
+        return mStates.get(index) != STATE_PENDING;
+    }
+
+    /**
+     * 要素が成功していればtrue
+     */
+    public boolean isSuccess(int index) {
+        return mStates.get(index) == STATE_SUCCESS;
+    }
+
+    /**
+     * 要素の結果を取得する
+     *
+     * PendingResultの場合はResult、Taskの場合は{@link Task#getResult()}となる。
+     *
+     * @throws IllegalStateException 要素が完了していない
+     * @throws PlayServiceException  要素が失敗している
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(int index) throws PlayServiceException {
+        final int state = mStates.get(index);
+        if (state == STATE_SUCCESS) {
+            return (T) mResults.get(index);
+        } else if (state == STATE_FAILURE) {
+            Throwable error = mErrors.get(index);
+            if (error instanceof PlayServiceException) {
+                throw (PlayServiceException) error;
+            }
+            throw new PlayServiceException(error);
+        } else {
+            throw new IllegalStateException("Not completed index(" + index + ")");
+        }
+    }
+
+    /**
+     * 要素が失敗している場合、その理由を取得する
+     */
+    @Nullable
+    public Throwable getError(int index) {
+        return mStates.get(index) == STATE_FAILURE ? mErrors.get(index) : null;
+    }
+}
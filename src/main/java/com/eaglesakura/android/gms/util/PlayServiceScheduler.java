@@ -0,0 +1,79 @@
+package com.eaglesakura.android.gms.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ライブラリ内部で共有する遅延実行用のスケジューラ
+ *
+ * タイムアウトやアイドル切断等、短時間で終わる処理のみを実行する。
+ * 全ての遅延処理は1スレッドで処理される。
+ * IPC等のブロッキングを伴う処理は{@link #executeBlocking(Runnable)}で別スレッドに逃がす。
+ */
+public class PlayServiceScheduler {
+
+    /**
+     * ブロッキング処理を行う最大スレッド数
+     */
+    private static final int BLOCKING_THREAD_COUNT = 2;
+
+    private static ScheduledExecutorService sScheduler;
+
+    private static ExecutorService sBlockingExecutor;
+
+    /**
+     * 指定時間後にcommandを実行する
+     */
+    public static ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return getScheduler().schedule(command, delay, unit);
+    }
+
+    /**
+     * commandを共有スレッドで実行する
+     */
+    public static void execute(Runnable command) {
+        getScheduler().execute(command);
+    }
+
+    /**
+     * ブロッキングを伴う処理をバックグラウンドで実行する
+     *
+     * トークン取得等のIPCを伴う処理はスケジューラのスレッドを止めないよう、こちらで実行する。
+     */
+    public static void executeBlocking(Runnable command) {
+        getBlockingExecutor().execute(command);
+    }
+
+    private static synchronized ExecutorService getBlockingExecutor() {
+        if (sBlockingExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    BLOCKING_THREAD_COUNT, BLOCKING_THREAD_COUNT,
+                    30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "PlayServiceBlocking");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            sBlockingExecutor = executor;
+        }
+        return sBlockingExecutor;
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (sScheduler == null) {
+            sScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "PlayServiceScheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sScheduler;
+    }
+}
@@ -0,0 +1,267 @@
+package com.eaglesakura.android.gms.util;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 大量のタイムアウトを1スレッドで管理するタイマー
+ *
+ * 期限は{@link #TICK_MS}単位のスロットに振り分けられ(Hashed Timing Wheel)、
+ * 登録・キャンセルはO(1)で行われる。タイムアウトが1つも登録されていない間はスレッドは待機し続ける。
+ * 期限の精度は{@link #TICK_MS}となるため、タイムアウト判定のみに使用する。
+ */
+public class PlayServiceTimer {
+    /**
+     * 登録されたタイムアウト
+     */
+    public interface Timeout {
+        /**
+         * タイムアウトをキャンセルする
+         *
+         * @return 実行前にキャンセルできた場合true
+         */
+        boolean cancel();
+    }
+
+    /**
+     * 現在時刻の取得元
+     */
+    interface Clock {
+        long nanoTime();
+    }
+
+    /**
+     * 1スロットの時間(ms)
+     */
+    public static final long TICK_MS = 10;
+
+    /**
+     * スロット数
+     * 1周(TICK_MS * WHEEL_SIZE)を超える期限は周回数で管理する
+     */
+    static final int WHEEL_SIZE = 512;
+
+    private static final PlayServiceTimer sInstance = new PlayServiceTimer();
+
+    @SuppressWarnings("unchecked")
+    private final List<Entry>[] mWheel = new List[WHEEL_SIZE];
+
+    /**
+     * 登録待ちのタイムアウト。タイマースレッドのみがスロットへ振り分ける
+     */
+    private final ConcurrentLinkedQueue<Entry> mPending = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger mActiveCount = new AtomicInteger();
+
+    private final Object mLock = new Object();
+
+    private final Clock mClock;
+
+    /**
+     * 期限を迎えたcommandの実行先
+     */
+    private final Executor mExecutor;
+
+    /**
+     * trueの場合はタイマースレッドを起動せず、{@link #tick()}の呼び出しによってのみ時間を進める
+     */
+    private final boolean mManualTick;
+
+    private Thread mThread;
+
+    /**
+     * タイマースレッドが処理済みのtick
+     */
+    private long mTick;
+
+    private long mStartTime;
+
+    PlayServiceTimer() {
+        this(System::nanoTime, PlayServiceScheduler::execute, false);
+    }
+
+    PlayServiceTimer(Clock clock, Executor executor, boolean manualTick) {
+        mClock = clock;
+        mExecutor = executor;
+        mManualTick = manualTick;
+        mStartTime = clock.nanoTime();
+        for (int i = 0; i < WHEEL_SIZE; ++i) {
+            mWheel[i] = new ArrayList<>();
+        }
+    }
+
+    /**
+     * 指定時間後にcommandを実行する
+     *
+     * commandは{@link PlayServiceScheduler#execute(Runnable)}で実行されるため、短時間で終わる処理のみを指定する。
+     */
+    @NonNull
+    public static Timeout schedule(@NonNull Runnable command, long delay, @NonNull TimeUnit unit) {
+        return sInstance.add(command, unit.toNanos(Math.max(delay, 0)));
+    }
+
+    /**
+     * 期限を過ぎた時点でcommandを実行する
+     *
+     * 期限が無い場合は何もしない。
+     */
+    @NonNull
+    public static Timeout schedule(@NonNull Runnable command, @NonNull Deadline deadline) {
+        if (deadline.isInfinite()) {
+            return () -> false;
+        }
+        return schedule(command, deadline.getRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 未実行のタイムアウト数を取得する
+     */
+    public static int getActiveCount() {
+        return sInstance.mActiveCount.get();
+    }
+
+    Timeout add(Runnable command, long delayNanos) {
+        final Entry entry = new Entry(command, mClock.nanoTime() + delayNanos);
+        // タイマースレッドが登録待ちを見落として待機しないよう、先に加算する
+        final int activeCount = mActiveCount.getAndIncrement();
+        mPending.add(entry);
+        if (activeCount == 0 && !mManualTick) {
+            synchronized (mLock) {
+                if (mThread == null) {
+                    mThread = new Thread(this::run, "PlayServiceTimer");
+                    mThread.setDaemon(true);
+                    mThread.start();
+                } else {
+                    mLock.notifyAll();
+                }
+            }
+        }
+        return entry;
+    }
+
+    private void run() {
+        synchronized (mLock) {
+            mStartTime = mClock.nanoTime();
+            mTick = 0;
+        }
+
+        while (true) {
+            synchronized (mLock) {
+                while (mActiveCount.get() == 0) {
+                    // スロットに残っているのはキャンセル済みのみのため、全て破棄する
+                    // 登録待ちは並行して追加され得るため、次回の振り分け時に破棄する
+                    for (List<Entry> bucket : mWheel) {
+                        bucket.clear();
+                    }
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    // 待機中の時間は経過済みとして扱う
+                    mTick = (mClock.nanoTime() - mStartTime) / TimeUnit.MILLISECONDS.toNanos(TICK_MS);
+                }
+            }
+
+            final long tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK_MS);
+            final long nextTickTime = mStartTime + (mTick + 1) * tickNanos;
+            long sleepNanos = nextTickTime - mClock.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            tick();
+        }
+    }
+
+    /**
+     * 1tick進め、期限を迎えたタイムアウトを実行する
+     *
+     * タイマースレッド、もしくは手動で進める場合はその呼び出し元からのみ呼び出す。
+     */
+    void tick() {
+        ++mTick;
+        transferPending();
+        expire(mWheel[(int) (mTick % WHEEL_SIZE)]);
+    }
+
+    /**
+     * 登録待ちのタイムアウトをスロットへ振り分ける
+     */
+    private void transferPending() {
+        final long tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK_MS);
+        Entry entry;
+        while ((entry = mPending.poll()) != null) {
+            if (entry.mCanceled.get()) {
+                continue;
+            }
+
+            // 期限を含むtick。既に過ぎている場合は処理中のtickで実行する
+            long tick = (entry.mDeadlineNanos - mStartTime + tickNanos - 1) / tickNanos;
+            tick = Math.max(tick, mTick);
+            entry.mRounds = (tick - mTick) / WHEEL_SIZE;
+            mWheel[(int) (tick % WHEEL_SIZE)].add(entry);
+        }
+    }
+
+    private void expire(List<Entry> bucket) {
+        Iterator<Entry> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.mCanceled.get()) {
+                iterator.remove();
+            } else if (entry.mRounds > 0) {
+                --entry.mRounds;
+            } else {
+                iterator.remove();
+                if (entry.mCanceled.compareAndSet(false, true)) {
+                    mActiveCount.decrementAndGet();
+                    mExecutor.execute(entry.mCommand);
+                }
+            }
+        }
+    }
+
+    private class Entry implements Timeout {
+        final Runnable mCommand;
+
+        final long mDeadlineNanos;
+
+        /**
+         * 実行されるまでに残っている周回数
+         */
+        long mRounds;
+
+        /**
+         * キャンセルもしくは実行済みであればtrue
+         */
+        final AtomicBoolean mCanceled = new AtomicBoolean();
+
+        Entry(Runnable command, long deadlineNanos) {
+            mCommand = command;
+            mDeadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (mCanceled.compareAndSet(false, true)) {
+                // スロットからはタイマースレッドが次に巡回した時点で取り除かれる
+                mActiveCount.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
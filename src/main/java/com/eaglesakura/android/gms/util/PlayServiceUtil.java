@@ -1,6 +1,5 @@
 package com.eaglesakura.android.gms.util;
 
-import com.google.android.gms.auth.GoogleAuthUtil;
 import com.google.android.gms.auth.api.Auth;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
@@ -11,34 +10,65 @@ import com.google.android.gms.common.api.Result;
 import com.google.android.gms.tasks.Task;
 
 import com.eaglesakura.android.error.NetworkNotConnectException;
+import com.eaglesakura.android.gms.auth.AccessTokenCache;
+import com.eaglesakura.android.gms.auth.SignInStateCache;
 import com.eaglesakura.android.gms.client.PlayServiceConnection;
 import com.eaglesakura.android.gms.error.PlayServiceException;
 import com.eaglesakura.android.gms.error.PlayServiceNotAvailableException;
-import com.eaglesakura.android.util.AndroidNetworkUtil;
+import com.eaglesakura.android.gms.error.PlayServiceTimeoutException;
+import com.eaglesakura.android.gms.metrics.PlayServiceMetrics;
 import com.eaglesakura.lambda.CallbackUtils;
 import com.eaglesakura.lambda.CancelCallback;
-import com.eaglesakura.thread.Holder;
-import com.eaglesakura.util.Util;
 
-import android.accounts.Account;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.Executor;
 
 /**
  * PlayService系のUtil
  */
 public class PlayServiceUtil {
 
+    /**
+     * コールバックを呼び出し元のスレッドで直接実行する
+     */
+    private static final Executor DIRECT_EXECUTOR = command -> command.run();
+
+    private static volatile Executor sCallbackExecutor = DIRECT_EXECUTOR;
+
+    private static AccessTokenCache sAccessTokenCache;
+
+    /**
+     * Taskの完了通知を受け取るExecutorを指定する
+     *
+     * デフォルトではTaskを完了させたスレッド上で直接通知される。
+     * 待機の解除のみを行う軽量な処理が実行されるため、通常は変更の必要はない。
+     * PendingResultの通知はPlayServiceの仕様上、Looperを持つスレッドで行われる。
+     *
+     * @param executor 通知先。nullの場合はデフォルトに戻す
+     */
+    public static void setCallbackExecutor(@Nullable Executor executor) {
+        sCallbackExecutor = (executor != null ? executor : DIRECT_EXECUTOR);
+    }
+
+    @NonNull
+    public static Executor getCallbackExecutor() {
+        return sCallbackExecutor;
+    }
+
     /**
      * ログインを行うためのIntentを発行する。
      *
      * 既にログイン済みの場合、アクセスを一旦signOutして再度ログインを促すようにする
+     * UIスレッドからの要求に即座に応える場合は{@link com.eaglesakura.android.gms.auth.SignInIntentPreparer}で事前に準備する。
      *
      * @param builder        ログイン対象のAPI
      * @param cancelCallback キャンセルチェック
@@ -49,89 +79,182 @@ public class PlayServiceUtil {
         try (
                 PlayServiceConnection connection = PlayServiceConnection.newInstance(builder, cancelCallback)
         ) {
-            GoogleApiClient client = connection.getClientIfSuccess();
-//            await(Auth.GoogleSignInApi.revokeAccess(client), cancelCallback);
-            await(Auth.GoogleSignInApi.signOut(client), cancelCallback);
-            return connection.newSignInIntent();
+            return newSignInIntent(connection, cancelCallback);
         } catch (IOException e) {
             throw new PlayServiceException(e);
         }
     }
 
+    /**
+     * 接続済みのClientを使用して、ログインを行うためのIntentを発行する。
+     *
+     * {@link com.eaglesakura.android.gms.client.PlayServiceConnectionPool}で共有されている接続を利用する場合に使用する。
+     * connectionは閉じられない。
+     *
+     * @param connection     接続済みのClient
+     * @param cancelCallback キャンセルチェック
+     * @return ログイン用intent
+     */
+    public static Intent newSignInIntent(PlayServiceConnection connection, CancelCallback cancelCallback) throws InterruptedException, PlayServiceException {
+        signOut(connection, cancelCallback);
+        return connection.newSignInIntent();
+    }
+
+    /**
+     * サインアウトを行う
+     *
+     * {@link SignInStateCache}にキャッシュされているサインイン状態は全て破棄される。
+     * connectionは閉じられない。
+     *
+     * @param connection     接続済みのClient
+     * @param cancelCallback キャンセルチェック
+     */
+    public static void signOut(PlayServiceConnection connection, CancelCallback cancelCallback) throws InterruptedException, PlayServiceException {
+        GoogleApiClient client = connection.getClientIfSuccess();
+        try {
+//            await(Auth.GoogleSignInApi.revokeAccess(client), cancelCallback);
+            await(Auth.GoogleSignInApi.signOut(client), cancelCallback);
+        } finally {
+            // 途中でキャンセルされた場合もサインアウトされている可能性がある
+            SignInStateCache.getInstance().invalidateAll();
+        }
+    }
+
     /**
      * OAuth2アクセストークンを取得する
      *
+     * トークンは{@link AccessTokenCache}にキャッシュされ、有効期限内であればIPCを行わずに返却される。
+     *
      * @param email       UserEmail
      * @param scope       アクセススコープ
      * @param extraScopes 2個以上のアクセススコープを指定する場合
      */
     @Nullable
     public static String getAccessToken(@NonNull Context context, @NonNull String email, @NonNull String scope, String... extraScopes) throws PlayServiceException {
-        try {
-            return GoogleAuthUtil.getToken(
-                    context,
-                    new Account(email, "com.google"),
-                    "oauth2:" + scope
-            );
-        } catch (Exception e) {
-            throw new PlayServiceException(e);
+        return getAccessTokenCache(context).getToken(email, scope, extraScopes);
+    }
+
+    /**
+     * 期限付きでOAuth2アクセストークンを取得する
+     *
+     * @throws com.eaglesakura.android.gms.error.PlayServiceTimeoutException 期限までに取得できなかった
+     * @see AccessTokenCache#getToken(Deadline, String, String, String...)
+     */
+    @NonNull
+    public static String getAccessToken(@NonNull Context context, @NonNull Deadline deadline, @NonNull String email, @NonNull String scope, String... extraScopes) throws PlayServiceException {
+        return getAccessTokenCache(context).getToken(deadline, email, scope, extraScopes);
+    }
+
+    /**
+     * 無効になったOAuth2アクセストークンを破棄する
+     *
+     * サーバーから401が返却された場合に呼び出す。次回の{@link #getAccessToken(Context, String, String, String...)}では新しいトークンが取得される。
+     */
+    public static void invalidateAccessToken(@NonNull Context context, @NonNull String token) throws PlayServiceException {
+        getAccessTokenCache(context).invalidateToken(token);
+    }
+
+    /**
+     * 指定したアカウントのアクセストークンを全て破棄する
+     *
+     * サインアウト時に呼び出す。
+     */
+    public static void clearAccessTokens(@NonNull Context context, @NonNull String email) {
+        getAccessTokenCache(context).clearAccount(email);
+    }
+
+    /**
+     * {@link #getAccessToken(Context, String, String, String...)}で使用されるキャッシュを取得する
+     */
+    @NonNull
+    public static synchronized AccessTokenCache getAccessTokenCache(@NonNull Context context) {
+        if (sAccessTokenCache == null) {
+            sAccessTokenCache = new AccessTokenCache(context);
         }
+        return sAccessTokenCache;
     }
 
     /**
      * キャンセルチェックを行ったうえで処理待ちを行う
+     *
+     * 結果はコールバックで通知され、キャンセルチェックは{@link ResultLatch#getDefaultCancelCheckInterval()}ごとに行われる。
      */
     public static <T extends Result> T await(PendingResult<T> task, CancelCallback cancelCallback) throws InterruptedException {
-        // タスクの完了待ちを行う
-        Holder<T> holder = new Holder<>();
-        task.setResultCallback(result -> holder.set(result));
-
-        T item;
-        while ((item = holder.get()) == null) {
-            if (CallbackUtils.isCanceled(cancelCallback)) {
-                task.cancel();
-                throw new InterruptedException();
-            }
-            Util.sleep(1);
+        final long startTime = startAwait(task);
+        ResultLatch<T> latch = newLatch(task);
+        try {
+            return recordAwait(latch.await(cancelCallback), startTime);
+        } catch (InterruptedException e) {
+            task.cancel();
+            recordAwaitCanceled(task, startTime);
+            throw e;
         }
-
-        return item;
     }
 
+    /**
+     * OptionalPendingResultの処理待ちを行う
+     *
+     * 結果が既に得られている場合は待機しない。
+     * Looperを持つスレッドから呼び出された場合、完了はキャンセルチェックごとに確認される。
+     * silentSignInの結果を繰り返し確認する場合は{@link SignInStateCache}を使用する。
+     */
     public static <T extends Result> T await(OptionalPendingResult<T> task, CancelCallback cancelCallback) throws InterruptedException {
-        while (!CallbackUtils.isCanceled(cancelCallback)) {
-            if (task.isDone()) {
-                return task.get();
-            }
-            if (task.isCanceled()) {
-                throw new InterruptedException();
+        final long startTime = startAwait(task);
+        if (task.isDone()) {
+            // 結果は一度しか取得できないため、確定済みであればコールバックを登録せずに取得する
+            return recordAwait(task.get(), startTime);
+        }
+
+        // GoogleApiClientのコールバックはLooperへ投げられるため、Looperを持つスレッドではコールバックを待たずに完了を確認する
+        final boolean polling = (Looper.myLooper() != null);
+        ResultLatch<T> latch = polling ? new ResultLatch<>() : newLatch(task);
+        // キャンセル状態のチェックでラップされるため、CancelTokenは直接登録する
+        final CancelToken.Registration registration =
+                (cancelCallback instanceof CancelToken) ? ((CancelToken) cancelCallback).register(() -> latch.abort()) : null;
+        try {
+            return recordAwait(latch.await(withCanceledCheck(task, polling ? latch : null, cancelCallback)), startTime);
+        } catch (InterruptedException e) {
+            recordAwaitCanceled(task, startTime);
+            throw e;
+        } finally {
+            if (registration != null) {
+                registration.unregister();
             }
-            Util.sleep(1);
         }
-        throw new InterruptedException();
+    }
+
+    /**
+     * 期限付きで処理待ちを行う
+     *
+     * 期限を過ぎた場合、PendingResultはキャンセルされる。
+     *
+     * @throws PlayServiceTimeoutException 期限までに結果が得られなかった
+     */
+    public static <T extends Result> T await(PendingResult<T> task, Deadline deadline, CancelCallback cancelCallback) throws InterruptedException, PlayServiceTimeoutException {
+        final long startTime = startAwait(task);
+        ResultLatch<T> latch = newLatch(task);
+        try {
+            return recordAwait(latch.await(cancelCallback, deadline), startTime);
+        } catch (InterruptedException | PlayServiceTimeoutException e) {
+            task.cancel();
+            recordAwaitCanceled(task, startTime);
+            throw e;
+        }
     }
 
     /**
      * キャンセルチェックとネットワークチェックを行ったうえで処理待ちを行う
      */
     public static <T extends Result> T awaitWithNetwork(Context context, PendingResult<T> task, CancelCallback cancelCallback) throws InterruptedException, NetworkNotConnectException {
-        // タスクの完了待ちを行う
-        Holder<T> holder = new Holder<>();
-        task.setResultCallback(result -> holder.set(result));
-
-        T item;
-        while ((item = holder.get()) == null) {
-            AndroidNetworkUtil.assertNetworkConnected(context);
-
-            if (CallbackUtils.isCanceled(cancelCallback)) {
-                task.cancel();
-                throw new InterruptedException();
-            }
-
-            Util.sleep(1);
+        final long startTime = startAwait(task);
+        ResultLatch<T> latch = newLatch(task);
+        try {
+            return recordAwait(awaitWithNetwork(context, latch, cancelCallback), startTime);
+        } catch (InterruptedException | NetworkNotConnectException e) {
+            task.cancel();
+            recordAwaitCanceled(task, startTime);
+            throw e;
         }
-
-        return item;
     }
 
     /**
@@ -140,14 +263,28 @@ public class PlayServiceUtil {
      * @throws TaskCanceledException タスクがキャンセルされた
      */
     public static <T> Task<T> await(Task<T> task, CancelCallback cancelCallback) throws InterruptedException {
-        while (!task.isComplete()) {
-            if (CallbackUtils.isCanceled(cancelCallback)) {
-                throw new InterruptedException();
-            }
+        final long startTime = startAwait(task);
+        try {
+            return recordAwait(newLatch(task).await(cancelCallback), startTime);
+        } catch (InterruptedException e) {
+            recordAwaitCanceled(task, startTime);
+            throw e;
+        }
+    }
 
-            Util.sleep(1);
+    /**
+     * 期限付きでPlayService Taskの終了待ちを行う
+     *
+     * @throws PlayServiceTimeoutException 期限までに終了しなかった
+     */
+    public static <T> Task<T> await(Task<T> task, Deadline deadline, CancelCallback cancelCallback) throws InterruptedException, PlayServiceTimeoutException {
+        final long startTime = startAwait(task);
+        try {
+            return recordAwait(newLatch(task).await(cancelCallback, deadline), startTime);
+        } catch (InterruptedException | PlayServiceTimeoutException e) {
+            recordAwaitCanceled(task, startTime);
+            throw e;
         }
-        return task;
     }
 
     /**
@@ -156,37 +293,175 @@ public class PlayServiceUtil {
      * @throws TaskCanceledException タスクがキャンセルされた
      */
     public static <T> Task<T> awaitWithNetwork(Context context, Task<T> task, CancelCallback cancelCallback) throws InterruptedException, NetworkNotConnectException {
-        while (!task.isComplete()) {
-            AndroidNetworkUtil.assertNetworkConnected(context);
+        final long startTime = startAwait(task);
+        try {
+            return recordAwait(awaitWithNetwork(context, newLatch(task), cancelCallback), startTime);
+        } catch (InterruptedException | NetworkNotConnectException e) {
+            recordAwaitCanceled(task, startTime);
+            throw e;
+        }
+    }
+
+    /**
+     * 全ての要素が完了するまで待機する
+     *
+     * 要素はPendingResultかTaskである必要があり、結果は入力順に{@link PlayServiceBatch}から取得する。
+     * 一部の要素が失敗しても待機は中断されない。
+     */
+    public static PlayServiceBatch awaitAll(Collection<?> tasks, CancelCallback cancelCallback) throws InterruptedException {
+        return new PlayServiceBatch(tasks, tasks.size()).await(cancelCallback);
+    }
+
+    public static PlayServiceBatch awaitAllWithNetwork(Context context, Collection<?> tasks, CancelCallback cancelCallback) throws InterruptedException, NetworkNotConnectException {
+        return new PlayServiceBatch(tasks, tasks.size()).awaitWithNetwork(context, cancelCallback);
+    }
+
+    /**
+     * いずれか1つの要素が完了するまで待機する
+     *
+     * 完了した要素は{@link PlayServiceBatch#getCompletedIndex(int)}で取得する。
+     */
+    public static PlayServiceBatch awaitAny(Collection<?> tasks, CancelCallback cancelCallback) throws InterruptedException {
+        return awaitFirstN(tasks, 1, cancelCallback);
+    }
+
+    public static PlayServiceBatch awaitAnyWithNetwork(Context context, Collection<?> tasks, CancelCallback cancelCallback) throws InterruptedException, NetworkNotConnectException {
+        return awaitFirstNWithNetwork(context, tasks, 1, cancelCallback);
+    }
+
+    /**
+     * 指定数の要素が完了するまで待機する
+     *
+     * @param requireCount 待機する要素数
+     */
+    public static PlayServiceBatch awaitFirstN(Collection<?> tasks, int requireCount, CancelCallback cancelCallback) throws InterruptedException {
+        return new PlayServiceBatch(tasks, requireCount).await(cancelCallback);
+    }
+
+    public static PlayServiceBatch awaitFirstNWithNetwork(Context context, Collection<?> tasks, int requireCount, CancelCallback cancelCallback) throws InterruptedException, NetworkNotConnectException {
+        return new PlayServiceBatch(tasks, requireCount).awaitWithNetwork(context, cancelCallback);
+    }
+
+    /**
+     * 待機の開始を記録する
+     *
+     * @return 計測の開始時刻。計測が無効な場合は0
+     */
+    private static long startAwait(Object task) {
+        final long startTime = PlayServiceMetrics.startTime();
+        if (startTime != 0) {
+            PlayServiceMetrics.getInstance().onAwaitStart(task.getClass());
+        }
+        return startTime;
+    }
+
+    /**
+     * 待機時間を記録する。計測が無効な場合は何もしない。
+     */
+    private static <T> T recordAwait(T result, long startTime) {
+        if (startTime != 0 && result != null) {
+            PlayServiceMetrics.getInstance().onAwait(result.getClass(), System.nanoTime() - startTime, false);
+        }
+        return result;
+    }
+
+    private static void recordAwaitCanceled(Object task, long startTime) {
+        if (startTime != 0) {
+            PlayServiceMetrics.getInstance().onAwait(task.getClass(), System.nanoTime() - startTime, true);
+        }
+    }
+
+    /**
+     * PendingResultの完了時に一度だけ起こされるLatchを生成する
+     */
+    static <T extends Result> ResultLatch<T> newLatch(PendingResult<T> task) {
+        ResultLatch<T> latch = new ResultLatch<>();
+        task.setResultCallback(result -> latch.set(result));
+        return latch;
+    }
+
+    /**
+     * Taskの完了時に一度だけ起こされるLatchを生成する
+     *
+     * 通知は{@link #getCallbackExecutor()}で行い、UIスレッドに依存しないようにする。
+     */
+    static <T> ResultLatch<Task<T>> newLatch(Task<T> task) {
+        ResultLatch<Task<T>> latch = new ResultLatch<>();
+        task.addOnCompleteListener(sCallbackExecutor, it -> latch.set(it));
+        return latch;
+    }
 
-            if (CallbackUtils.isCanceled(cancelCallback)) {
-                throw new InterruptedException();
+    /**
+     * キャンセルチェックのタイミングでOptionalPendingResultのキャンセル状態も確認する。
+     *
+     * pollingLatchが指定された場合、完了を確認した時点で結果を取得してセットする。
+     * コールバックを登録したPendingResultの結果はコールバックで消費されるため、pollingLatchを指定しない。
+     *
+     * @param pollingLatch コールバックを登録していないLatch
+     */
+    static <T extends Result> CancelCallback withCanceledCheck(OptionalPendingResult<T> task, @Nullable ResultLatch<T> pollingLatch, CancelCallback cancelCallback) {
+        return () -> {
+            if (pollingLatch != null && task.isDone() && !pollingLatch.isDone()) {
+                // チェックは待機中のスレッドからのみ呼び出されるため、結果の取得は一度だけとなる
+                pollingLatch.set(task.get());
+                return false;
             }
+            if (task.isCanceled()) {
+                return true;
+            }
+            return CallbackUtils.isCanceled(cancelCallback);
+        };
+    }
 
-            Util.sleep(1);
+    /**
+     * ネットワークが切断された時点で中断される結果待ちを行う。
+     *
+     * 接続状態は{@link NetworkStateTracker}からの通知で監視し、待機中にポーリングは行わない。
+     */
+    static <T> T awaitWithNetwork(Context context, ResultLatch<T> latch, CancelCallback cancelCallback) throws InterruptedException, NetworkNotConnectException {
+        final NetworkStateTracker tracker = NetworkStateTracker.getInstance(context);
+        final NetworkStateTracker.Listener listener = connected -> {
+            if (!connected) {
+                latch.abort(new NetworkNotConnectException("Network disconnected"));
+            }
+        };
+
+        tracker.addListener(listener);
+        try {
+            // 登録前に切断された場合に備え、登録後にチェックする
+            tracker.assertConnected();
+            return latch.await(cancelCallback);
+        } catch (InterruptedException e) {
+            Throwable reason = latch.getAbortReason();
+            if (reason instanceof NetworkNotConnectException) {
+                throw (NetworkNotConnectException) reason;
+            }
+            throw e;
+        } finally {
+            tracker.removeListener(listener);
         }
-        return task;
     }
 
     /**
      * 必須バージョンがインストールされているか確認する
+     *
+     * 結果は{@link PlayServiceAvailabilityMonitor}にキャッシュされる。
      */
     public static boolean isInstalledRequireVersion(Context context) {
         // Google Play Serviceのバージョンチェックを行う
-        GoogleApiAvailability instance = GoogleApiAvailability.getInstance();
-        int playServiceError = instance.isGooglePlayServicesAvailable(context);
-        return playServiceError == ConnectionResult.SUCCESS;
+        return PlayServiceAvailabilityMonitor.getInstance(context).isAvailable();
     }
 
     /**
      * 必須バージョンがインストールされていることを確認し、そうでないなら例外を投げる
+     *
+     * 結果は{@link PlayServiceAvailabilityMonitor}にキャッシュされる。
      */
     public static void assertInstalledRequireVersion(Context context) throws PlayServiceNotAvailableException {
         // Google Play Serviceのバージョンチェックを行う
-        GoogleApiAvailability instance = GoogleApiAvailability.getInstance();
-        int playServiceError = instance.isGooglePlayServicesAvailable(context);
+        int playServiceError = PlayServiceAvailabilityMonitor.getInstance(context).getErrorCode();
         if (playServiceError != ConnectionResult.SUCCESS) {
-            throw new PlayServiceNotAvailableException(instance, playServiceError);
+            throw new PlayServiceNotAvailableException(GoogleApiAvailability.getInstance(), playServiceError);
         }
     }
 
@@ -0,0 +1,225 @@
+package com.eaglesakura.android.gms.util;
+
+import com.eaglesakura.android.gms.error.PlayServiceTimeoutException;
+import com.eaglesakura.lambda.CallbackUtils;
+import com.eaglesakura.lambda.CancelCallback;
+
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * PlayServiceのコールバックから一度だけ結果を受け取り、待機しているスレッドを起こす。
+ *
+ * 待機中のスレッドはparkされるため、結果待ちの間にCPUを消費しない。
+ * ForkJoinPool上で待機する場合はManagedBlockerとして扱われる。
+ * キャンセルは{@link #abort(Throwable)}による通知か、一定間隔での{@link CancelCallback}チェックで検出する。
+ * CancelCallbackに{@link CancelToken}を指定した場合はチェックを行わず、キャンセルされた時点で即座に中断する。
+ */
+public class ResultLatch<T> {
+    /**
+     * キャンセルチェックを行うデフォルトの間隔(ms)
+     */
+    public static final long DEFAULT_CANCEL_CHECK_INTERVAL_MS = 50;
+
+    private static volatile long sCancelCheckIntervalMs = DEFAULT_CANCEL_CHECK_INTERVAL_MS;
+
+    private final CountDownLatch mLatch = new CountDownLatch(1);
+
+    private final AtomicBoolean mDone = new AtomicBoolean();
+
+    private volatile T mResult;
+
+    private volatile Throwable mAbortReason;
+
+    /**
+     * 結果をセットし、待機中のスレッドを起こす。
+     *
+     * 既に結果がセットされているか、中断されている場合は何もしない。
+     *
+     * @return 結果がセットされた場合true
+     */
+    public boolean set(T result) {
+        if (!mDone.compareAndSet(false, true)) {
+            return false;
+        }
+        mResult = result;
+        mLatch.countDown();
+        return true;
+    }
+
+    /**
+     * 待機を中断し、待機中のスレッドを起こす。
+     *
+     * @param reason 中断理由
+     * @return 中断できた場合true
+     */
+    public boolean abort(@Nullable Throwable reason) {
+        if (!mDone.compareAndSet(false, true)) {
+            return false;
+        }
+        mAbortReason = (reason != null ? reason : new InterruptedException());
+        mLatch.countDown();
+        return true;
+    }
+
+    /**
+     * 待機を中断し、待機中のスレッドを起こす。
+     */
+    public boolean abort() {
+        return abort(null);
+    }
+
+    /**
+     * 結果がセットされたか、中断されていたらtrue
+     */
+    public boolean isDone() {
+        return mLatch.getCount() == 0;
+    }
+
+    /**
+     * 中断されていたらtrue
+     */
+    public boolean isAborted() {
+        return isDone() && mAbortReason != null;
+    }
+
+    /**
+     * 中断理由を取得する
+     */
+    @Nullable
+    public Throwable getAbortReason() {
+        return mAbortReason;
+    }
+
+    /**
+     * 結果を取得する。結果がセットされていない場合はnullを返す。
+     */
+    @Nullable
+    public T get() {
+        return mResult;
+    }
+
+    /**
+     * デフォルトのキャンセルチェック間隔で結果待ちを行う
+     *
+     * @see #await(CancelCallback, long)
+     */
+    public T await(CancelCallback cancelCallback) throws InterruptedException {
+        return await(cancelCallback, sCancelCheckIntervalMs);
+    }
+
+    /**
+     * 結果待ちを行う。
+     *
+     * 結果がセットされた時点で即座に復帰する。キャンセルチェックは intervalMs ごとにのみ行われる。
+     *
+     * @param cancelCallback キャンセルチェック
+     * @param intervalMs     キャンセルチェックを行う間隔
+     * @return セットされた結果
+     * @throws InterruptedException キャンセルされた、もしくは中断された
+     */
+    public T await(CancelCallback cancelCallback, long intervalMs) throws InterruptedException {
+        if (cancelCallback instanceof CancelToken) {
+            final CancelToken.Registration registration = ((CancelToken) cancelCallback).register(() -> abort());
+            try {
+                return awaitImpl(null, Long.MAX_VALUE);
+            } finally {
+                registration.unregister();
+            }
+        }
+        return awaitImpl(cancelCallback, intervalMs);
+    }
+
+    private T awaitImpl(CancelCallback cancelCallback, long intervalMs) throws InterruptedException {
+        intervalMs = Math.max(intervalMs, 1);
+        while (true) {
+            if (CallbackUtils.isCanceled(cancelCallback)) {
+                abort();
+                break;
+            }
+            if (BlockingSupport.await(mLatch, intervalMs, TimeUnit.MILLISECONDS)) {
+                break;
+            }
+        }
+        // abortが競合して失敗した場合、結果の書き込みが終わるまで待つ
+        BlockingSupport.await(mLatch);
+
+        if (mAbortReason != null) {
+            throw new InterruptedException();
+        }
+        return mResult;
+    }
+
+    /**
+     * 期限付きで結果待ちを行う。
+     *
+     * 待機は期限までの残り時間とキャンセルチェック間隔の短い方ずつ行われるため、期限の監視にスレッドを使用しない。
+     * 期限を過ぎた場合は{@link PlayServiceTimeoutException}で中断される。
+     *
+     * @throws InterruptedException        キャンセルされた、もしくは中断された
+     * @throws PlayServiceTimeoutException 期限を過ぎた
+     */
+    public T await(CancelCallback cancelCallback, Deadline deadline) throws InterruptedException, PlayServiceTimeoutException {
+        if (cancelCallback instanceof CancelToken) {
+            final CancelToken.Registration registration = ((CancelToken) cancelCallback).register(() -> abort());
+            try {
+                return awaitImpl(null, deadline, Long.MAX_VALUE);
+            } finally {
+                registration.unregister();
+            }
+        }
+        return awaitImpl(cancelCallback, deadline, TimeUnit.MILLISECONDS.toNanos(sCancelCheckIntervalMs));
+    }
+
+    private T awaitImpl(CancelCallback cancelCallback, Deadline deadline, long intervalNanos) throws InterruptedException, PlayServiceTimeoutException {
+        while (true) {
+            if (CallbackUtils.isCanceled(cancelCallback)) {
+                abort();
+                break;
+            }
+
+            final long remain = deadline.getRemaining(TimeUnit.NANOSECONDS);
+            if (remain <= 0) {
+                abort(new PlayServiceTimeoutException("Deadline exceeded"));
+                break;
+            }
+            if (BlockingSupport.await(mLatch, Math.min(remain, intervalNanos), TimeUnit.NANOSECONDS)) {
+                break;
+            }
+        }
+        BlockingSupport.await(mLatch);
+
+        final Throwable reason = mAbortReason;
+        if (reason instanceof PlayServiceTimeoutException) {
+            throw (PlayServiceTimeoutException) reason;
+        } else if (reason != null) {
+            throw new InterruptedException();
+        }
+        return mResult;
+    }
+
+    /**
+     * 結果がセットされるか、中断されるまで最大timeoutだけ待機する。
+     *
+     * @return 結果がセットされたか中断された場合true、タイムアウトした場合false
+     */
+    public boolean awaitDone(long timeout, TimeUnit unit) throws InterruptedException {
+        return BlockingSupport.await(mLatch, timeout, unit);
+    }
+
+    /**
+     * キャンセルチェックのデフォルト間隔を指定する。
+     *
+     * 結果の通知はコールバックで即座に行われるため、この値は結果待ちのレイテンシに影響しない。
+     */
+    public static void setDefaultCancelCheckInterval(long intervalMs) {
+        sCancelCheckIntervalMs = Math.max(intervalMs, 1);
+    }
+
+    public static long getDefaultCancelCheckInterval() {
+        return sCancelCheckIntervalMs;
+    }
+}
@@ -0,0 +1,140 @@
+package com.eaglesakura.android.gms.client;
+
+import com.eaglesakura.android.gms.client.PlayServiceConnectScheduler.Priority;
+import com.eaglesakura.android.gms.client.PlayServiceConnectScheduler.Ticket;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import como.eaglesakura.android.framework.gms.UnitTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PlayServiceConnectSchedulerTest extends UnitTestCase {
+
+    /**
+     * 通知を溜めておき、任意のタイミングで実行する
+     */
+    static class ManualScheduler {
+        final List<Runnable> mTasks = new ArrayList<>();
+
+        final PlayServiceConnectScheduler mScheduler = new PlayServiceConnectScheduler(mTasks::add);
+
+        final List<String> mAdmitted = new ArrayList<>();
+
+        final Map<String, Ticket> mTickets = new HashMap<>();
+
+        ManualScheduler(int maxConcurrentConnects) {
+            mScheduler.setMaxConcurrentConnects(maxConcurrentConnects);
+        }
+
+        Ticket submit(String name, Priority priority) {
+            Ticket ticket = mScheduler.submit(priority, admitted -> mAdmitted.add(name));
+            mTickets.put(name, ticket);
+            return ticket;
+        }
+
+        void release(String name) {
+            mTickets.get(name).release();
+        }
+
+        void runTasks() {
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+    }
+
+    @Test
+    public void 同時接続数を超えた接続は待機する() throws Throwable {
+        ManualScheduler scheduler = new ManualScheduler(2);
+        scheduler.submit("a", Priority.Default);
+        scheduler.submit("b", Priority.Default);
+        scheduler.submit("c", Priority.Default);
+        scheduler.runTasks();
+
+        assertEquals("[a, b]", scheduler.mAdmitted.toString());
+        assertEquals(2, scheduler.mScheduler.getInFlightCount());
+        assertEquals(1, scheduler.mScheduler.getQueueDepth());
+
+        scheduler.release("a");
+        scheduler.runTasks();
+        assertEquals("[a, b, c]", scheduler.mAdmitted.toString());
+        assertEquals(2, scheduler.mScheduler.getInFlightCount());
+    }
+
+    @Test
+    public void 優先度の高い順かつ登録順に開始される() throws Throwable {
+        ManualScheduler scheduler = new ManualScheduler(1);
+        scheduler.submit("first", Priority.Background);
+        scheduler.submit("bg", Priority.Background);
+        scheduler.submit("def1", Priority.Default);
+        scheduler.submit("fg", Priority.Foreground);
+        scheduler.submit("def2", Priority.Default);
+        scheduler.runTasks();
+
+        for (String name : new String[]{"first", "fg", "def1", "def2"}) {
+            scheduler.release(name);
+            scheduler.runTasks();
+        }
+        assertEquals("[first, fg, def1, def2, bg]", scheduler.mAdmitted.toString());
+    }
+
+    @Test
+    public void 待機中に合流した優先度で開始される() throws Throwable {
+        ManualScheduler scheduler = new ManualScheduler(1);
+        scheduler.submit("first", Priority.Default);
+        scheduler.submit("def", Priority.Default);
+        Ticket bg = scheduler.submit("bg", Priority.Background);
+        scheduler.runTasks();
+
+        bg.promote(Priority.Foreground);
+        assertEquals(Priority.Foreground, bg.getPriority());
+        // 優先度を下げることはない
+        bg.promote(Priority.Background);
+        assertEquals(Priority.Foreground, bg.getPriority());
+
+        scheduler.release("first");
+        scheduler.runTasks();
+        assertEquals("[first, bg]", scheduler.mAdmitted.toString());
+    }
+
+    @Test
+    public void 枠を返却したスレッドでは次の接続を開始しない() throws Throwable {
+        ManualScheduler scheduler = new ManualScheduler(1);
+        scheduler.submit("a", Priority.Default);
+        scheduler.submit("b", Priority.Default);
+        scheduler.runTasks();
+
+        scheduler.release("a");
+        assertEquals("[a]", scheduler.mAdmitted.toString());
+        assertEquals(1, scheduler.mTasks.size());
+        scheduler.runTasks();
+        assertEquals("[a, b]", scheduler.mAdmitted.toString());
+    }
+
+    @Test
+    public void 待機中に返却された接続は開始されない() throws Throwable {
+        ManualScheduler scheduler = new ManualScheduler(1);
+        scheduler.submit("a", Priority.Default);
+        scheduler.submit("b", Priority.Default);
+        scheduler.submit("c", Priority.Default);
+        scheduler.runTasks();
+
+        scheduler.release("b");
+        assertEquals(1, scheduler.mScheduler.getDroppedCount());
+
+        // 枠の割り当て後、通知前に返却された場合も通知されない
+        scheduler.release("a");
+        scheduler.release("c");
+        scheduler.runTasks();
+        assertEquals("[a]", scheduler.mAdmitted.toString());
+        assertEquals(0, scheduler.mScheduler.getInFlightCount());
+        assertTrue(scheduler.mTasks.isEmpty());
+    }
+}
@@ -0,0 +1,93 @@
+package com.eaglesakura.android.gms.client;
+
+import com.google.android.gms.common.ConnectionResult;
+
+import com.eaglesakura.android.gms.client.PlayServiceRetryPolicy.ErrorType;
+import com.eaglesakura.android.gms.error.CircuitBreakerOpenException;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import como.eaglesakura.android.framework.gms.UnitTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PlayServiceRetryPolicyTest extends UnitTestCase {
+
+    static void assertOpen(PlayServiceRetryPolicy.CircuitBreaker breaker, long now) {
+        try {
+            breaker.assertClosed(now);
+            fail();
+        } catch (CircuitBreakerOpenException e) {
+            // 停止中
+        }
+    }
+
+    @Test
+    public void エラーコードを分類する() throws Throwable {
+        assertEquals(ErrorType.Transient, PlayServiceRetryPolicy.getErrorType(ConnectionResult.NETWORK_ERROR));
+        assertEquals(ErrorType.Transient, PlayServiceRetryPolicy.getErrorType(ConnectionResult.SERVICE_UPDATING));
+        assertEquals(ErrorType.RequireResolution, PlayServiceRetryPolicy.getErrorType(ConnectionResult.SIGN_IN_REQUIRED));
+        assertEquals(ErrorType.Canceled, PlayServiceRetryPolicy.getErrorType(ConnectionResult.CANCELED));
+        assertEquals(ErrorType.Permanent, PlayServiceRetryPolicy.getErrorType(ConnectionResult.DEVELOPER_ERROR));
+    }
+
+    @Test
+    public void バックオフは倍増し上限を超えない() throws Throwable {
+        PlayServiceRetryPolicy policy = new PlayServiceRetryPolicy().setBackoff(100, 1000, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 100; ++i) {
+            // ジッターにより、半分から全体の間となる
+            long first = policy.getBackoffMs(1);
+            assertTrue(first >= 50 && first <= 100);
+
+            long third = policy.getBackoffMs(3);
+            assertTrue(third >= 200 && third <= 400);
+
+            long last = policy.getBackoffMs(30);
+            assertTrue(last >= 500 && last <= 1000);
+        }
+    }
+
+    @Test
+    public void 連続した失敗で停止し試行の成功で再開する() throws Throwable {
+        PlayServiceRetryPolicy policy = new PlayServiceRetryPolicy().setCircuitBreaker(2, 1000, TimeUnit.MILLISECONDS);
+        PlayServiceRetryPolicy.CircuitBreaker breaker = policy.getCircuitBreaker("key");
+
+        breaker.assertClosed(0);
+        assertFalse(breaker.onFailure(false, 0));
+        breaker.assertClosed(0);
+        assertTrue(breaker.onFailure(false, 0));
+        assertOpen(breaker, 999);
+
+        // 停止時間の経過後は1回だけ試行できる
+        breaker.assertClosed(1000);
+        assertOpen(breaker, 1000);
+        breaker.onSuccess();
+
+        breaker.assertClosed(1000);
+        breaker.assertClosed(1000);
+    }
+
+    @Test
+    public void 試行に失敗すると再び停止する() throws Throwable {
+        PlayServiceRetryPolicy policy = new PlayServiceRetryPolicy().setCircuitBreaker(5, 1000, TimeUnit.MILLISECONDS);
+        PlayServiceRetryPolicy.CircuitBreaker breaker = policy.getCircuitBreaker("key");
+
+        // 回復しない失敗は即座に停止する
+        assertTrue(breaker.onFailure(true, 0));
+        assertOpen(breaker, 500);
+
+        breaker.assertClosed(1000);
+        assertTrue(breaker.onFailure(false, 1000));
+        assertOpen(breaker, 1999);
+
+        // 判定せずに終えた試行は、次の呼び出し元へ試行を譲る
+        breaker.assertClosed(2000);
+        breaker.onCanceled();
+        breaker.assertClosed(2000);
+    }
+}
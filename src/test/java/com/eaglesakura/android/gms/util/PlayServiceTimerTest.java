@@ -0,0 +1,112 @@
+package com.eaglesakura.android.gms.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import como.eaglesakura.android.framework.gms.UnitTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlayServiceTimerTest extends UnitTestCase {
+
+    /**
+     * tickごとに時刻を進める
+     */
+    static class ManualTimer {
+        final List<String> mExpired = new ArrayList<>();
+
+        long mNow = TimeUnit.SECONDS.toNanos(1);
+
+        final PlayServiceTimer mTimer = new PlayServiceTimer(() -> mNow, Runnable::run, true);
+
+        PlayServiceTimer.Timeout add(String name, long ticks) {
+            return mTimer.add(() -> mExpired.add(name), TimeUnit.MILLISECONDS.toNanos(ticks * PlayServiceTimer.TICK_MS));
+        }
+
+        void advance(long ticks) {
+            for (long i = 0; i < ticks; ++i) {
+                mNow += TimeUnit.MILLISECONDS.toNanos(PlayServiceTimer.TICK_MS);
+                mTimer.tick();
+            }
+        }
+    }
+
+    @Test
+    public void 期限のtickで実行される() throws Throwable {
+        ManualTimer timer = new ManualTimer();
+        timer.add("a", 3);
+        timer.add("b", 1);
+
+        timer.advance(1);
+        assertEquals("[b]", timer.mExpired.toString());
+        timer.advance(1);
+        assertEquals("[b]", timer.mExpired.toString());
+        timer.advance(1);
+        assertEquals("[b, a]", timer.mExpired.toString());
+    }
+
+    @Test
+    public void 過ぎた期限は次のtickで実行される() throws Throwable {
+        ManualTimer timer = new ManualTimer();
+        timer.add("a", 0);
+        assertTrue(timer.mExpired.isEmpty());
+        timer.advance(1);
+        assertEquals("[a]", timer.mExpired.toString());
+    }
+
+    @Test
+    public void スロットが一周した後も正しいtickで実行される() throws Throwable {
+        ManualTimer timer = new ManualTimer();
+        timer.advance(PlayServiceTimer.WHEEL_SIZE - 2);
+
+        // 振り分け先のスロットが先頭へ戻る
+        timer.add("a", 5);
+        timer.advance(4);
+        assertTrue(timer.mExpired.isEmpty());
+        timer.advance(1);
+        assertEquals("[a]", timer.mExpired.toString());
+    }
+
+    @Test
+    public void 一周を超える期限は周回数を消費してから実行される() throws Throwable {
+        ManualTimer timer = new ManualTimer();
+        timer.add("a", PlayServiceTimer.WHEEL_SIZE * 2 + 3);
+
+        // 同じスロットを2回通過しても実行されない
+        timer.advance(PlayServiceTimer.WHEEL_SIZE + 3);
+        assertTrue(timer.mExpired.isEmpty());
+        timer.advance(PlayServiceTimer.WHEEL_SIZE - 1);
+        assertTrue(timer.mExpired.isEmpty());
+        timer.advance(1);
+        assertEquals("[a]", timer.mExpired.toString());
+    }
+
+    @Test
+    public void キャンセルしたタイムアウトは実行されない() throws Throwable {
+        ManualTimer timer = new ManualTimer();
+        PlayServiceTimer.Timeout a = timer.add("a", 2);
+        PlayServiceTimer.Timeout b = timer.add("b", 2);
+
+        // スロットへ振り分け前と後のそれぞれでキャンセルする
+        assertTrue(a.cancel());
+        timer.advance(1);
+        assertTrue(b.cancel());
+        assertFalse(b.cancel());
+        timer.advance(PlayServiceTimer.WHEEL_SIZE);
+        assertTrue(timer.mExpired.isEmpty());
+    }
+
+    @Test
+    public void 実行済みのタイムアウトはキャンセルできない() throws Throwable {
+        ManualTimer timer = new ManualTimer();
+        PlayServiceTimer.Timeout a = timer.add("a", 1);
+        timer.advance(1);
+        assertEquals("[a]", timer.mExpired.toString());
+        assertFalse(a.cancel());
+    }
+}
@@ -0,0 +1,100 @@
+package como.eaglesakura.android.framework.gms.auth;
+
+import com.eaglesakura.android.gms.auth.AccessTokenCache;
+
+import org.junit.Test;
+
+import android.accounts.Account;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import como.eaglesakura.android.framework.gms.UnitTestCase;
+
+import static org.junit.Assert.assertEquals;
+
+public class AccessTokenCacheTest extends UnitTestCase {
+
+    @Test
+    public void 同じScopeの組み合わせはキャッシュされる() throws Throwable {
+        List<String> requests = new ArrayList<>();
+        AccessTokenCache cache = new AccessTokenCache(new AccessTokenCache.TokenSource() {
+            @Override
+            public String getToken(@NonNull Account account, @NonNull String scope) throws Exception {
+                requests.add(scope);
+                return "token-" + requests.size();
+            }
+
+            @Override
+            public void clearToken(@NonNull String token) throws Exception {
+            }
+        });
+
+        assertEquals("token-1", cache.getToken("user@example.com", "scope.b", "scope.a"));
+        assertEquals("token-1", cache.getToken("user@example.com", "scope.a", "scope.b"));
+        assertEquals(1, requests.size());
+        assertEquals("oauth2:scope.a scope.b", requests.get(0));
+
+        // 401等で破棄されたら再取得される
+        cache.invalidateToken("token-1");
+        assertEquals("token-2", cache.getToken("user@example.com", "scope.a", "scope.b"));
+    }
+
+    @Test
+    public void 上限を超えたトークンは古い順に破棄される() throws Throwable {
+        List<String> requests = new ArrayList<>();
+        AccessTokenCache cache = new AccessTokenCache(new AccessTokenCache.TokenSource() {
+            @Override
+            public String getToken(@NonNull Account account, @NonNull String scope) throws Exception {
+                requests.add(account.name + " " + scope);
+                return "token-" + requests.size();
+            }
+
+            @Override
+            public void clearToken(@NonNull String token) throws Exception {
+            }
+        });
+        cache.setMaxSize(2);
+
+        assertEquals("token-1", cache.getToken("a@example.com", "scope"));
+        assertEquals("token-2", cache.getToken("b@example.com", "scope"));
+        // aを参照したため、bが最も古くなる
+        assertEquals("token-1", cache.getToken("a@example.com", "scope"));
+        assertEquals("token-3", cache.getToken("c@example.com", "scope"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals("token-4", cache.getToken("b@example.com", "scope"));
+
+        // サインアウトしたアカウントのみ破棄される
+        cache.clearAccount("c@example.com");
+        assertEquals(1, cache.size());
+        assertEquals("token-4", cache.getToken("b@example.com", "scope"));
+    }
+
+    @Test
+    public void 期限切れのトークンは破棄してから再取得される() throws Throwable {
+        List<String> requests = new ArrayList<>();
+        AccessTokenCache cache = new AccessTokenCache(new AccessTokenCache.TokenSource() {
+            @Override
+            public String getToken(@NonNull Account account, @NonNull String scope) throws Exception {
+                requests.add("get");
+                return "token-" + requests.size();
+            }
+
+            @Override
+            public void clearToken(@NonNull String token) throws Exception {
+                requests.add("clear " + token);
+            }
+        });
+        // 取得した時点で期限切れとする
+        cache.setTokenLifetime(0, TimeUnit.MILLISECONDS);
+
+        assertEquals("token-1", cache.getToken("user@example.com", "scope"));
+        // GMSから同じトークンが返却されないよう、古いトークンを破棄してから取得する
+        assertEquals("token-3", cache.getToken("user@example.com", "scope"));
+        assertEquals("clear token-1", requests.get(1));
+        assertEquals("get", requests.get(2));
+    }
+}
@@ -0,0 +1,55 @@
+package como.eaglesakura.android.framework.gms.auth;
+
+import com.google.android.gms.auth.api.signin.GoogleSignInResult;
+import com.google.android.gms.common.api.Status;
+
+import com.eaglesakura.android.gms.auth.SignInStateCache;
+import com.eaglesakura.android.gms.client.PlayServiceConnectionSpec;
+
+import org.junit.Test;
+
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import como.eaglesakura.android.framework.gms.UnitTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SignInStateCacheTest extends UnitTestCase {
+
+    @Test
+    public void 成功した結果はキャッシュされサインアウトで破棄される() throws Throwable {
+        AtomicInteger requests = new AtomicInteger();
+        SignInStateCache cache = new SignInStateCache(spec -> {
+            requests.incrementAndGet();
+            return new GoogleSignInResult(null, new Status(0));
+        });
+        PlayServiceConnectionSpec spec = new PlayServiceConnectionSpec(RuntimeEnvironment.application).addScope("scope");
+
+        GoogleSignInResult result = cache.getSignInResult(spec, () -> false);
+        assertSame(result, cache.getSignInResult(spec, () -> false));
+        assertEquals(1, requests.get());
+        assertEquals(1, cache.getHitCount());
+
+        cache.invalidateAll();
+        cache.getSignInResult(spec, () -> false);
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void 失敗した結果はキャッシュされない() throws Throwable {
+        AtomicInteger requests = new AtomicInteger();
+        SignInStateCache cache = new SignInStateCache(spec -> {
+            requests.incrementAndGet();
+            // SIGN_IN_REQUIRED
+            return new GoogleSignInResult(null, new Status(4));
+        });
+        PlayServiceConnectionSpec spec = new PlayServiceConnectionSpec(RuntimeEnvironment.application).addScope("scope");
+
+        cache.getSignInResult(spec, () -> false);
+        cache.getSignInResult(spec, () -> false);
+        assertEquals(2, requests.get());
+    }
+}
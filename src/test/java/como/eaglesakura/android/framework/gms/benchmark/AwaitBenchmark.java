@@ -0,0 +1,146 @@
+package como.eaglesakura.android.framework.gms.benchmark;
+
+import com.google.android.gms.common.api.OptionalPendingResult;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import com.eaglesakura.android.gms.auth.AccessTokenCache;
+import com.eaglesakura.android.gms.util.PlayServiceUtil;
+import com.eaglesakura.android.gms.util.ResultLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import android.accounts.Account;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import como.eaglesakura.android.framework.gms.UnitTestCase;
+import como.eaglesakura.android.framework.gms.benchmark.FakePendingResult.FakeResult;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 接続・待機処理のベンチマーク
+ *
+ * PlayServiceの代わりに指定時間後に完了するPendingResult/Taskを使用する。
+ * 通常のテストでは実行されず、-Dbenchmark=true を指定した場合のみ実行される。
+ *
+ * ./gradlew testDebugUnitTest -Dbenchmark=true --tests "*AwaitBenchmark"
+ */
+public class AwaitBenchmark extends UnitTestCase {
+    /**
+     * PlayServiceのレスポンスを模した完了までの時間
+     */
+    static final long RESPONSE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    static final int WARMUP_COUNT = 20;
+
+    static final int ITERATION_COUNT = 200;
+
+    ScheduledExecutorService mBackend;
+
+    @Before
+    public void setUpBackend() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        mBackend = Executors.newScheduledThreadPool(2);
+    }
+
+    @After
+    public void tearDownBackend() {
+        if (mBackend != null) {
+            mBackend.shutdownNow();
+        }
+    }
+
+    BenchmarkRunner newRunner(String name) {
+        return new BenchmarkRunner(name, WARMUP_COUNT, ITERATION_COUNT);
+    }
+
+    Task<String> newTask() {
+        TaskCompletionSource<String> source = new TaskCompletionSource<>();
+        mBackend.schedule(() -> source.setResult("done"), RESPONSE_DELAY_NANOS, TimeUnit.NANOSECONDS);
+        return source.getTask();
+    }
+
+    /**
+     * PlayServiceConnection.newInstanceの待機部分
+     *
+     * GoogleApiClientはローカルで代替できないため、接続コールバックからResultLatchを起こす経路を計測する。
+     */
+    @Test
+    public void connect() throws Throwable {
+        newRunner("connect-wait").run(() -> {
+            ResultLatch<Object> latch = new ResultLatch<>();
+            mBackend.schedule(() -> latch.set(latch), RESPONSE_DELAY_NANOS, TimeUnit.NANOSECONDS);
+            latch.await(() -> false);
+        });
+    }
+
+    @Test
+    public void await_PendingResult() throws Throwable {
+        newRunner("await(PendingResult)").run(() -> {
+            PendingResult<FakeResult> task = new FakePendingResult(mBackend, RESPONSE_DELAY_NANOS);
+            PlayServiceUtil.await(task, () -> false);
+        });
+    }
+
+    @Test
+    public void await_OptionalPendingResult() throws Throwable {
+        newRunner("await(OptionalPendingResult)").run(() -> {
+            OptionalPendingResult<FakeResult> task = new FakePendingResult(mBackend, RESPONSE_DELAY_NANOS);
+            PlayServiceUtil.await(task, () -> false);
+        });
+    }
+
+    @Test
+    public void awaitWithNetwork_PendingResult() throws Throwable {
+        newRunner("awaitWithNetwork(PendingResult)").run(() -> {
+            PendingResult<FakeResult> task = new FakePendingResult(mBackend, RESPONSE_DELAY_NANOS);
+            PlayServiceUtil.awaitWithNetwork(RuntimeEnvironment.application, task, () -> false);
+        });
+    }
+
+    @Test
+    public void await_Task() throws Throwable {
+        newRunner("await(Task)").run(() -> {
+            PlayServiceUtil.await(newTask(), () -> false);
+        });
+    }
+
+    @Test
+    public void awaitWithNetwork_Task() throws Throwable {
+        newRunner("awaitWithNetwork(Task)").run(() -> {
+            PlayServiceUtil.awaitWithNetwork(RuntimeEnvironment.application, newTask(), () -> false);
+        });
+    }
+
+    @Test
+    public void getAccessToken() throws Throwable {
+        AccessTokenCache cache = new AccessTokenCache(new AccessTokenCache.TokenSource() {
+            @Override
+            public String getToken(@NonNull Account account, @NonNull String scope) throws Exception {
+                Thread.sleep(TimeUnit.NANOSECONDS.toMillis(RESPONSE_DELAY_NANOS));
+                return "token";
+            }
+
+            @Override
+            public void clearToken(@NonNull String token) throws Exception {
+            }
+        });
+
+        newRunner("getAccessToken(cached)").run(() -> {
+            cache.getToken("user@example.com", "https://www.googleapis.com/auth/drive", "email");
+        });
+        newRunner("getAccessToken(miss)").run(() -> {
+            cache.clear();
+            cache.getToken("user@example.com", "https://www.googleapis.com/auth/drive", "email");
+        });
+    }
+}
@@ -0,0 +1,148 @@
+package como.eaglesakura.android.framework.gms.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 同時実行数ごとに処理時間・CPU時間・アロケーション量を計測する
+ *
+ * 計測結果は標準出力へ書き出される。
+ */
+public class BenchmarkRunner {
+    /**
+     * 計測対象の処理
+     */
+    public interface Action {
+        void run() throws Exception;
+    }
+
+    /**
+     * 計測を行う同時実行数
+     */
+    public static final int[] CONCURRENCY = {1, 8, 64};
+
+    private final String mName;
+
+    private final int mWarmupCount;
+
+    private final int mIterationCount;
+
+    public BenchmarkRunner(String name, int warmupCount, int iterationCount) {
+        mName = name;
+        mWarmupCount = warmupCount;
+        mIterationCount = iterationCount;
+    }
+
+    /**
+     * 全ての同時実行数で計測を行う
+     */
+    public void run(Action action) throws Exception {
+        for (int concurrency : CONCURRENCY) {
+            run(concurrency, action);
+        }
+    }
+
+    public void run(int concurrency, Action action) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<Sample>> futures = new ArrayList<>();
+            for (int i = 0; i < concurrency; ++i) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return measure(action);
+                }));
+            }
+            start.countDown();
+
+            List<Sample> samples = new ArrayList<>();
+            for (Future<Sample> future : futures) {
+                samples.add(future.get());
+            }
+            report(concurrency, samples);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Sample measure(Action action) throws Exception {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < mWarmupCount; ++i) {
+            action.run();
+        }
+
+        final long[] latency = new long[mIterationCount];
+        final long cpuStart = bean.getCurrentThreadCpuTime();
+        final long allocStart = getAllocatedBytes(bean);
+        for (int i = 0; i < mIterationCount; ++i) {
+            final long start = System.nanoTime();
+            action.run();
+            latency[i] = System.nanoTime() - start;
+        }
+        final long allocBytes = (allocStart < 0 ? -1 : getAllocatedBytes(bean) - allocStart);
+        return new Sample(latency, bean.getCurrentThreadCpuTime() - cpuStart, allocBytes);
+    }
+
+    private void report(int concurrency, List<Sample> samples) {
+        int count = 0;
+        long cpuNanos = 0;
+        long allocBytes = 0;
+        for (Sample sample : samples) {
+            count += sample.mLatency.length;
+            cpuNanos += sample.mCpuNanos;
+            allocBytes = (allocBytes < 0 || sample.mAllocatedBytes < 0) ? -1 : allocBytes + sample.mAllocatedBytes;
+        }
+
+        long[] latency = new long[count];
+        int offset = 0;
+        for (Sample sample : samples) {
+            System.arraycopy(sample.mLatency, 0, latency, offset, sample.mLatency.length);
+            offset += sample.mLatency.length;
+        }
+        Arrays.sort(latency);
+
+        System.out.println(String.format(
+                "[benchmark] %s threads=%d calls=%d p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms cpu/call=%.3fms alloc/call=%s",
+                mName, concurrency, count,
+                percentile(latency, 0.50), percentile(latency, 0.90), percentile(latency, 0.99), latency[count - 1] / 1000000.0,
+                (cpuNanos / (double) count) / 1000000.0,
+                allocBytes < 0 ? "n/a" : String.format("%dB", allocBytes / count)
+        ));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(sorted.length * p) - 1);
+        return sorted[Math.max(index, 0)] / 1000000.0;
+    }
+
+    /**
+     * 現在のスレッドのアロケーション量を取得する。取得できないVMでは-1を返す。
+     */
+    private static long getAllocatedBytes(ThreadMXBean bean) {
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static class Sample {
+        final long[] mLatency;
+
+        final long mCpuNanos;
+
+        final long mAllocatedBytes;
+
+        Sample(long[] latency, long cpuNanos, long allocatedBytes) {
+            mLatency = latency;
+            mCpuNanos = cpuNanos;
+            mAllocatedBytes = allocatedBytes;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package como.eaglesakura.android.framework.gms.benchmark;
+
+import com.google.android.gms.common.api.OptionalPendingResult;
+import com.google.android.gms.common.api.Result;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 指定時間後に完了するPendingResult
+ *
+ * 実機のPlayServiceを使用せずに待機処理の性能を計測するために使用する。
+ * 実機と同じく結果は一度だけ消費でき、消費済みの結果を取得しようとすると例外となる。
+ * コールバックは完了時に消費され、通知はコールバック用のExecutorで行われる。
+ */
+public class FakePendingResult extends OptionalPendingResult<FakePendingResult.FakeResult> {
+
+    public static class FakeResult implements Result {
+        final Status mStatus;
+
+        FakeResult(Status status) {
+            mStatus = status;
+        }
+
+        @Override
+        public Status getStatus() {
+            return mStatus;
+        }
+    }
+
+    private final CountDownLatch mLatch = new CountDownLatch(1);
+
+    private volatile FakeResult mResult;
+
+    private volatile boolean mCanceled;
+
+    private ResultCallback<? super FakeResult> mCallback;
+
+    private boolean mConsumed;
+
+    private volatile boolean mConsumeError;
+
+    private final Executor mCallbackExecutor;
+
+    public FakePendingResult(ScheduledExecutorService executor, long delayNanos) {
+        this(executor, delayNanos, Runnable::run);
+    }
+
+    /**
+     * @param callbackExecutor コールバックの通知先。GoogleApiClientのLooperを模倣する
+     */
+    public FakePendingResult(ScheduledExecutorService executor, long delayNanos, Executor callbackExecutor) {
+        mCallbackExecutor = callbackExecutor;
+        executor.schedule(() -> deliver(new FakeResult(new Status(0))), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private FakePendingResult() {
+        mCallbackExecutor = Runnable::run;
+    }
+
+    /**
+     * 完了済みのPendingResultを生成する
+     */
+    public static FakePendingResult completed() {
+        FakePendingResult result = new FakePendingResult();
+        result.deliver(new FakeResult(new Status(0)));
+        return result;
+    }
+
+    /**
+     * 結果を消費済みにする
+     */
+    private synchronized void consume() {
+        if (mConsumed) {
+            // 呼び出し元で例外が握りつぶされた場合も検出できるよう記録する
+            mConsumeError = true;
+            throw new IllegalStateException("Result has already been consumed.");
+        }
+        mConsumed = true;
+    }
+
+    /**
+     * 消費済みの結果を取得しようとした場合true
+     */
+    public boolean hasConsumeError() {
+        return mConsumeError;
+    }
+
+    void deliver(FakeResult result) {
+        ResultCallback<? super FakeResult> callback;
+        synchronized (this) {
+            if (mResult != null) {
+                return;
+            }
+            mResult = result;
+            callback = mCallback;
+        }
+        mLatch.countDown();
+        if (callback != null) {
+            consume();
+            mCallbackExecutor.execute(() -> callback.onResult(result));
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        return mResult != null;
+    }
+
+    @Override
+    public FakeResult get() {
+        if (mResult == null) {
+            throw new IllegalStateException("Result is not ready.");
+        }
+        consume();
+        return mResult;
+    }
+
+    @NonNull
+    @Override
+    public FakeResult await() {
+        try {
+            mLatch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        consume();
+        return mResult;
+    }
+
+    @NonNull
+    @Override
+    public FakeResult await(long time, @NonNull TimeUnit unit) {
+        try {
+            mLatch.await(time, unit);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        if (mResult != null) {
+            consume();
+        }
+        return mResult;
+    }
+
+    @Override
+    public void cancel() {
+        mCanceled = true;
+        deliver(new FakeResult(new Status(16)));
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    @Override
+    public void setResultCallback(@NonNull ResultCallback<? super FakeResult> callback) {
+        FakeResult result;
+        synchronized (this) {
+            mCallback = callback;
+            result = mResult;
+        }
+        if (result != null) {
+            consume();
+            mCallbackExecutor.execute(() -> callback.onResult(result));
+        }
+    }
+
+    @Override
+    public void setResultCallback(@NonNull ResultCallback<? super FakeResult> callback, long time, @NonNull TimeUnit unit) {
+        setResultCallback(callback);
+    }
+}
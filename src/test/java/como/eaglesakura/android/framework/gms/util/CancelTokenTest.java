@@ -0,0 +1,66 @@
+package como.eaglesakura.android.framework.gms.util;
+
+import com.eaglesakura.android.gms.metrics.PlayServiceMetrics;
+import com.eaglesakura.android.gms.util.CancelToken;
+
+import org.junit.Test;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import como.eaglesakura.android.framework.gms.UnitTestCase;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CancelTokenTest extends UnitTestCase {
+
+    @Test
+    public void 直接キャンセルした場合は処理の例外が投げられる() throws Throwable {
+        CancelToken token = new CancelToken();
+        AtomicBoolean executed = new AtomicBoolean();
+        token.register(() -> {
+            throw new IllegalStateException();
+        });
+        token.register(() -> executed.set(true));
+
+        try {
+            token.cancel();
+            fail();
+        } catch (IllegalStateException e) {
+            // 登録済みの処理の例外
+        }
+        assertTrue(executed.get());
+        assertTrue(token.isCanceled());
+        assertFalse(token.cancel());
+    }
+
+    @Test
+    public void 時間経過でキャンセルした場合は処理の例外が計測値へ通知される() throws Throwable {
+        CountDownLatch reported = new CountDownLatch(1);
+        PlayServiceMetrics.setInstance(new PlayServiceMetrics() {
+            @Override
+            public void onUncaughtError(@NonNull Throwable error) {
+                if (error instanceof IllegalStateException) {
+                    reported.countDown();
+                }
+            }
+        });
+        try {
+            CancelToken token = new CancelToken();
+            token.register(() -> {
+                throw new IllegalStateException();
+            });
+            token.cancelAfter(10, TimeUnit.MILLISECONDS);
+
+            assertTrue(reported.await(5, TimeUnit.SECONDS));
+            assertTrue(token.isCanceled());
+        } finally {
+            PlayServiceMetrics.setInstance(null);
+        }
+    }
+}
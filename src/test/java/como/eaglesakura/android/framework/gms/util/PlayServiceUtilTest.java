@@ -0,0 +1,75 @@
+package como.eaglesakura.android.framework.gms.util;
+
+import com.eaglesakura.android.gms.util.PlayServiceUtil;
+
+import org.junit.Test;
+
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import como.eaglesakura.android.framework.gms.UnitTestCase;
+import como.eaglesakura.android.framework.gms.benchmark.FakePendingResult;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PlayServiceUtilTest extends UnitTestCase {
+
+    @Test
+    public void 完了済みのOptionalPendingResultは一度だけ消費される() throws Throwable {
+        // 完了済みの結果にコールバックを登録すると、その時点で消費される
+        FakePendingResult task = FakePendingResult.completed();
+        assertNotNull(PlayServiceUtil.await(task, () -> false));
+        assertFalse(task.hasConsumeError());
+    }
+
+    @Test
+    public void 待機中に完了したOptionalPendingResultは一度だけ消費される() throws Throwable {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            for (int i = 0; i < 100; ++i) {
+                // コールバックの登録とキャンセルチェックの間に完了させる
+                FakePendingResult task = new FakePendingResult(executor, TimeUnit.MICROSECONDS.toNanos(i * 10));
+                assertNotNull(PlayServiceUtil.await(task, () -> false));
+                assertFalse(task.hasConsumeError());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void コールバックのスレッドで待機しても完了する() throws Throwable {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            // 待機中のスレッドへ投げられたコールバックは、待機が終わるまで実行されない
+            List<Runnable> callbacks = new ArrayList<>();
+            FakePendingResult task = new FakePendingResult(executor, TimeUnit.MILLISECONDS.toNanos(10), callbacks::add);
+            Throwable[] error = new Throwable[1];
+            Thread thread = new Thread(() -> {
+                Looper.prepare();
+                try {
+                    assertNotNull(PlayServiceUtil.await(task, () -> false));
+                } catch (Throwable e) {
+                    error[0] = e;
+                }
+            });
+            thread.start();
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+
+            assertFalse(thread.isAlive());
+            assertNull(error[0]);
+            assertTrue(callbacks.isEmpty());
+            assertFalse(task.hasConsumeError());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}